@@ -0,0 +1,106 @@
+package adapters;
+
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+// One client per service and region for the whole process, all of them on a single HTTP
+// connection pool. Building clients per adapter gave every one of them its own pool of 50
+// connections with the SDK's default timeouts, and threw away warm connections with the adapter.
+// The async clients share a separate non-blocking pool, created on first use.
+public class AwsClients {
+
+  // Covers the manager's listener, sender and ingester threads at once
+  private static final int MAX_CONNECTIONS = Integer.getInteger("aws.http.max.connections", 128);
+  private static final Duration CONNECTION_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration SOCKET_TIMEOUT = Duration.ofSeconds(30); // Above 20 s long polls
+  private static final Duration CONNECTION_MAX_IDLE = Duration.ofSeconds(50);
+  // Requests in flight on the async clients, long polls included, no thread is held by any
+  private static final int MAX_ASYNC_CONNECTIONS =
+      Integer.getInteger("aws.http.max.async.connections", 512);
+  private static final int MAX_PENDING_ACQUIRES = 10000;
+
+  private static final SdkHttpClient httpClient =
+      ApacheHttpClient.builder()
+          .maxConnections(MAX_CONNECTIONS)
+          .connectionTimeout(CONNECTION_TIMEOUT)
+          .connectionAcquisitionTimeout(SOCKET_TIMEOUT)
+          .socketTimeout(SOCKET_TIMEOUT)
+          .connectionMaxIdleTime(CONNECTION_MAX_IDLE)
+          .build();
+
+  private static class AsyncHttpClientHolder {
+    private static final SdkAsyncHttpClient httpClient =
+        NettyNioAsyncHttpClient.builder()
+            .maxConcurrency(MAX_ASYNC_CONNECTIONS)
+            .maxPendingConnectionAcquires(MAX_PENDING_ACQUIRES)
+            .connectionTimeout(CONNECTION_TIMEOUT)
+            .connectionAcquisitionTimeout(SOCKET_TIMEOUT)
+            .readTimeout(SOCKET_TIMEOUT)
+            .connectionMaxIdleTime(CONNECTION_MAX_IDLE)
+            .build();
+  }
+
+  private static final ConcurrentHashMap<Region, SqsClient> sqsClients = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Region, S3Client> s3Clients = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Region, Ec2Client> ec2Clients = new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Region, CloudWatchClient> cloudWatchClients =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Region, SqsAsyncClient> sqsAsyncClients =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<Region, S3AsyncClient> s3AsyncClients =
+      new ConcurrentHashMap<>();
+
+  private AwsClients() {}
+
+  public static SqsClient sqs(Region region) {
+    return sqsClients.computeIfAbsent(
+        region, r -> SqsClient.builder().region(r).httpClient(httpClient).build());
+  }
+
+  public static S3Client s3(Region region) {
+    return s3Clients.computeIfAbsent(
+        region, r -> S3Client.builder().region(r).httpClient(httpClient).build());
+  }
+
+  public static Ec2Client ec2(Region region) {
+    return ec2Clients.computeIfAbsent(
+        region, r -> Ec2Client.builder().region(r).httpClient(httpClient).build());
+  }
+
+  public static CloudWatchClient cloudWatch(Region region) {
+    return cloudWatchClients.computeIfAbsent(
+        region, r -> CloudWatchClient.builder().region(r).httpClient(httpClient).build());
+  }
+
+  public static SqsAsyncClient sqsAsync(Region region) {
+    return sqsAsyncClients.computeIfAbsent(
+        region,
+        r ->
+            SqsAsyncClient.builder()
+                .region(r)
+                .httpClient(AsyncHttpClientHolder.httpClient)
+                .build());
+  }
+
+  public static S3AsyncClient s3Async(Region region) {
+    return s3AsyncClients.computeIfAbsent(
+        region,
+        r ->
+            S3AsyncClient.builder()
+                .region(r)
+                .httpClient(AsyncHttpClientHolder.httpClient)
+                .build());
+  }
+}
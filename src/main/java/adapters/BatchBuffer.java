@@ -0,0 +1,203 @@
+package adapters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+public class BatchBuffer<T> {
+
+  // Producers block once this many batches are waiting on the executor
+  private static final int MAX_OUTSTANDING_BATCHES = 32;
+
+  public interface BatchSender<T> {
+    // Completes or fails every entry of the batch, possibly after returning
+    void send(List<Entry<T>> batch);
+  }
+
+  // An item together with the outcome of sending it, so a caller learns about its own item only
+  public static class Entry<T> {
+    private final T item;
+    private final CompletableFuture<Void> sent = new CompletableFuture<>();
+
+    private Entry(T item) {
+      this.item = item;
+    }
+
+    public T getItem() {
+      return item;
+    }
+
+    public void complete() {
+      sent.complete(null);
+    }
+
+    public void fail(Throwable error) {
+      sent.completeExceptionally(error);
+    }
+  }
+
+  private static final ScheduledExecutorService lingerScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "batch-linger");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // Sends batches of buffers that were given no executor of their own, a send may sleep between
+  // retries and must neither hold the producer nor the linger thread
+  private static final ExecutorService defaultSenders =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "batch-send");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final int maxEntries;
+  private final long maxBytes;
+  private final long lingerMillis;
+  private final ToIntFunction<T> sizeOf;
+  private final BatchSender<T> sender;
+  private final Semaphore outstandingPermits = new Semaphore(MAX_OUTSTANDING_BATCHES);
+  private final TreeSet<Long> outstanding = new TreeSet<>();
+  private long nextTicket = 0;
+  private volatile Executor executor = defaultSenders;
+
+  private List<Entry<T>> pending;
+  private long pendingBytes = 0;
+  private ScheduledFuture<?> lingerFlush;
+
+  public BatchBuffer(
+      int maxEntries,
+      long maxBytes,
+      long lingerMillis,
+      ToIntFunction<T> sizeOf,
+      BatchSender<T> sender) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.lingerMillis = lingerMillis;
+    this.sizeOf = sizeOf;
+    this.sender = sender;
+    pending = new ArrayList<>(maxEntries);
+  }
+
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  // Completes once the item is sent, or fails once the sender gave up on it
+  public CompletableFuture<Void> add(T item) {
+    Entry<T> entry = new Entry<>(item);
+    int size = sizeOf.applyAsInt(item);
+    List<Entry<T>> fullBatch = null;
+    List<Entry<T>> overflowBatch = null;
+    synchronized (this) {
+      if (!pending.isEmpty() && pendingBytes + size > maxBytes) {
+        overflowBatch = drain();
+      }
+      pending.add(entry);
+      pendingBytes += size;
+      if (pending.size() >= maxEntries || pendingBytes >= maxBytes) {
+        fullBatch = drain();
+      } else if (lingerFlush == null) {
+        lingerFlush = lingerScheduler.schedule(this::flushAsync, lingerMillis, TimeUnit.MILLISECONDS);
+      }
+    }
+    dispatch(overflowBatch, true);
+    dispatch(fullBatch, true);
+    return entry.sent;
+  }
+
+  // Sends what is pending and waits for every batch handed to the executor before the call
+  public void flush() {
+    List<Entry<T>> batch;
+    long lastTicket;
+    synchronized (this) {
+      batch = drain();
+      lastTicket = nextTicket - 1;
+    }
+    if (batch != null) send(batch);
+    boolean interrupted = false;
+    synchronized (this) {
+      while (!outstanding.isEmpty() && outstanding.first() <= lastTicket) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  private void flushAsync() {
+    List<Entry<T>> batch;
+    synchronized (this) {
+      batch = drain();
+    }
+    dispatch(batch, false); // Never block the shared linger thread
+  }
+
+  private List<Entry<T>> drain() {
+    if (lingerFlush != null) {
+      lingerFlush.cancel(false);
+      lingerFlush = null;
+    }
+    if (pending.isEmpty()) return null;
+    List<Entry<T>> batch = pending;
+    pending = new ArrayList<>(maxEntries);
+    pendingBytes = 0;
+    return batch;
+  }
+
+  private void dispatch(List<Entry<T>> batch, boolean block) {
+    if (batch == null) return;
+    boolean permitted = true;
+    if (block) outstandingPermits.acquireUninterruptibly();
+    else permitted = outstandingPermits.tryAcquire();
+    long ticket;
+    synchronized (this) {
+      ticket = nextTicket++;
+      outstanding.add(ticket);
+    }
+    boolean release = permitted;
+    Runnable send =
+        () -> {
+          try {
+            send(batch);
+          } finally {
+            if (release) outstandingPermits.release();
+            synchronized (this) {
+              outstanding.remove(ticket);
+              notifyAll();
+            }
+          }
+        };
+    try {
+      executor.execute(send);
+    } catch (RejectedExecutionException e) {
+      send.run(); // Executor already shut down, do not lose the batch
+    }
+  }
+
+  // A sender that throws leaves its unfinished entries failed rather than pending forever
+  private void send(List<Entry<T>> batch) {
+    try {
+      sender.send(batch);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      batch.forEach(entry -> entry.fail(e));
+    }
+  }
+}
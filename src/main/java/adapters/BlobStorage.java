@@ -0,0 +1,31 @@
+package adapters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+public interface BlobStorage {
+
+  // Returns null when the object does not exist, other failures are thrown
+  InputStream getFileStream(String bucketName, String key) throws IOException;
+
+  // From offset to the end. Returns null when the offset is at or past the end of the object,
+  // like S3 answering 416, a missing object or any other failure is thrown.
+  InputStream getFileStream(String bucketName, String key, long offset) throws IOException;
+
+  // A failed upload is thrown
+  void uploadString(String bucketName, String key, String content);
+
+  // A failed upload fails the future
+  CompletableFuture<Void> uploadStringAsync(String bucketName, String key, String content);
+
+  void createBucket(String bucketName);
+
+  void createBucketAndUploadFile(String bucketName, String filePath);
+
+  void deleteObject(String bucketName, String key);
+
+  void streamBucket(String bucketName, S3ObjectCallback callback);
+
+  void deleteBucket(String bucketName);
+}
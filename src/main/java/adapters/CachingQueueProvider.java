@@ -0,0 +1,86 @@
+package adapters;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the most recently used queues so that repeated lookups of the same queue, such as the
+// manager's per application queues, cost one GetQueueUrl round trip instead of one per message.
+// Queues are cached under both their name and their URL.
+public class CachingQueueProvider implements QueueProvider {
+
+  private final QueueProvider provider;
+  private final Map<String, MessageQueue> queues;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder missNanos = new LongAdder();
+
+  public CachingQueueProvider(QueueProvider provider, int capacity) {
+    this.provider = provider;
+    queues =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, MessageQueue> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  @Override
+  public MessageQueue getQueue(String queueName, boolean create) {
+    MessageQueue queue = lookup(queueName);
+    if (queue != null) return queue;
+    long start = System.nanoTime();
+    queue = provider.getQueue(queueName, create);
+    store(queueName, queue, start);
+    return queue;
+  }
+
+  @Override
+  public MessageQueue getQueueByURL(String queueURL) {
+    MessageQueue queue = lookup(queueURL);
+    if (queue != null) return queue;
+    long start = System.nanoTime();
+    queue = provider.getQueueByURL(queueURL);
+    store(null, queue, start);
+    return queue;
+  }
+
+  // Drops a queue that is no longer used or no longer exists
+  public void forget(String queueName) {
+    synchronized (queues) {
+      MessageQueue queue = queues.remove(queueName);
+      if (queue != null) queues.remove(queue.getQueueURL());
+    }
+  }
+
+  private MessageQueue lookup(String key) {
+    MessageQueue queue;
+    synchronized (queues) {
+      queue = queues.get(key);
+    }
+    if (queue != null) hits.increment();
+    return queue;
+  }
+
+  private void store(String queueName, MessageQueue queue, long startNanos) {
+    misses.increment();
+    missNanos.add(System.nanoTime() - startNanos);
+    synchronized (queues) {
+      if (queueName != null) queues.put(queueName, queue);
+      queues.put(queue.getQueueURL(), queue);
+    }
+  }
+
+  public String getStats() {
+    long missCount = misses.sum();
+    int size;
+    synchronized (queues) {
+      size = queues.size();
+    }
+    return String.format(
+        "queue cache entries %d, hits %d, misses %d, avg miss %.2f ms",
+        size, hits.sum(), missCount, missCount == 0 ? 0 : missNanos.sum() / 1e6 / missCount);
+  }
+}
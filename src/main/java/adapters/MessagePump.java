@@ -0,0 +1,112 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+// Keeps a number of receives outstanding on a queue without a thread per receive. Each poller
+// hands the messages of a receive to the executor and polls again once they are handled, so at
+// most pollers * 10 messages are being handled at a time and a slow handler slows the polling
+// instead of letting received messages pile up.
+public class MessagePump {
+
+  private static final long ERROR_BACKOFF_MILLIS = 1000;
+
+  private final MessageQueue queue;
+  private final int pollers;
+  private final Executor executor;
+  private final MessageReceivedCallback callback;
+  private final BooleanSupplier running;
+
+  private final LongAdder polls = new LongAdder();
+  private final LongAdder emptyPolls = new LongAdder();
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  public MessagePump(
+      MessageQueue queue,
+      int pollers,
+      Executor executor,
+      MessageReceivedCallback callback,
+      BooleanSupplier running) {
+    this.queue = queue;
+    this.pollers = pollers;
+    this.executor = executor;
+    this.callback = callback;
+    this.running = running;
+  }
+
+  // Completes once every poller has seen running turn false and handled its last messages
+  public CompletableFuture<Void> start() {
+    CompletableFuture<?>[] stopped = new CompletableFuture<?>[pollers];
+    for (int i = 0; i < pollers; i++) {
+      CompletableFuture<Void> poller = new CompletableFuture<>();
+      poll(poller);
+      stopped[i] = poller;
+    }
+    return CompletableFuture.allOf(stopped);
+  }
+
+  private void poll(CompletableFuture<Void> stopped) {
+    if (!running.getAsBoolean()) {
+      stopped.complete(null);
+      return;
+    }
+    polls.increment();
+    CompletableFuture<List<Message>> received;
+    try {
+      received = queue.receiveMessagesAsync(SQSAdapter.MAX_BATCH_ENTRIES);
+    } catch (RuntimeException e) {
+      received = CompletableFuture.failedFuture(e);
+    }
+    received
+        .thenCompose(this::handle)
+        .whenCompleteAsync( // Through the executor, an empty receive may complete at once
+            (handled, error) -> {
+              if (error == null) {
+                poll(stopped);
+                return;
+              }
+              errors.increment();
+              System.err.printf("Receiving from %s failed: %s%n", queue.getQueueURL(), error);
+              Executor delayed =
+                  CompletableFuture.delayedExecutor(ERROR_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+              delayed.execute(() -> poll(stopped));
+            },
+            executor);
+  }
+
+  private CompletableFuture<Void> handle(List<Message> received) {
+    if (received.isEmpty()) {
+      emptyPolls.increment();
+      return CompletableFuture.completedFuture(null);
+    }
+    messages.add(received.size());
+    CompletableFuture<?>[] handled = new CompletableFuture<?>[received.size()];
+    for (int i = 0; i < received.size(); i++) {
+      Message message = received.get(i);
+      handled[i] =
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  callback.onReceive(message);
+                } catch (Exception e) {
+                  e.printStackTrace(); // Left for redelivery like a failed synchronous handler
+                }
+              },
+              executor);
+    }
+    return CompletableFuture.allOf(handled);
+  }
+
+  public String getStats() {
+    return String.format(
+        "pump    polls %d, empty %d, messages %d, errors %d",
+        polls.sum(), emptyPolls.sum(), messages.sum(), errors.sum());
+  }
+}
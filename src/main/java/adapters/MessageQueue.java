@@ -0,0 +1,48 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+public interface MessageQueue {
+
+  void sendMessage(String message);
+
+  // Completes once the message is on the queue, fails if it could not be sent even after retrying
+  CompletableFuture<Void> sendMessageBuffered(String message);
+
+  boolean receiveMessage(MessageReceivedCallback callback);
+
+  void receiveMessageBatch(MessageReceivedCallback callback);
+
+  List<Message> receiveMessages(int maxMessages);
+
+  // Completes once messages arrive or the long poll runs out, possibly with no messages
+  CompletableFuture<List<Message>> receiveMessagesAsync(int maxMessages);
+
+  void deleteMessage(Message message) throws ExecutionException, InterruptedException;
+
+  // Fails if the message could not be deleted, it is then redelivered
+  CompletableFuture<Void> deleteMessageBuffered(Message message);
+
+  // A timeout of 0 makes the message visible again right away
+  void changeMessageVisibility(Message message, int timeoutSeconds);
+
+  // Returns the messages whose visibility could not be changed, they were deleted or received again
+  List<Message> changeMessageVisibilityBatch(List<Message> messages, int timeoutSeconds);
+
+  void setBatchExecutor(Executor executor);
+
+  void flush();
+
+  int getApproximateDepth();
+
+  int getApproximateInFlight();
+
+  void deleteQueue();
+
+  String getQueueURL();
+}
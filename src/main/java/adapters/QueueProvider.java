@@ -0,0 +1,8 @@
+package adapters;
+
+public interface QueueProvider {
+
+  MessageQueue getQueue(String queueName, boolean create);
+
+  MessageQueue getQueueByURL(String queueURL);
+}
@@ -1,73 +1,160 @@
 package adapters;
 
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.paginators.ListObjectsV2Iterable;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
-public class S3Adapter {
+public class S3Adapter implements BlobStorage {
 
+  // Uploads in flight before uploadStringAsync makes its caller wait
+  private static final int MAX_ASYNC_UPLOADS = 64;
+  // Files above one part go up as a parallel multipart upload
+  private static final long UPLOAD_PART_BYTES =
+      Long.getLong("s3.upload.part.bytes", 16L * 1024 * 1024);
+  private static final int UPLOAD_THREADS = Integer.getInteger("s3.upload.threads", 8);
+  private static final int UPLOAD_PART_ATTEMPTS = Integer.getInteger("s3.upload.part.attempts", 4);
+
+  private final Region region;
+  private final Semaphore uploadPermits = new Semaphore(MAX_ASYNC_UPLOADS);
   private S3Client s3;
+  private final S3MultipartUploader uploader;
+  private volatile S3AsyncClient s3Async;
 
   public S3Adapter(Region region) {
-    s3 = S3Client.builder().region(region).build();
+    this.region = region;
+    s3 = AwsClients.s3(region);
+    uploader = new S3MultipartUploader(s3, UPLOAD_PART_BYTES, UPLOAD_THREADS, UPLOAD_PART_ATTEMPTS);
   }
 
-  public InputStream getFileStream(String bucketName, String key) {
+  @Override
+  public InputStream getFileStream(String bucketName, String key) throws IOException {
     try {
       GetObjectRequest objectRequest =
           GetObjectRequest.builder().bucket(bucketName).key(key).build();
-      return s3.getObject(objectRequest, ResponseTransformer.toBytes()).asInputStream();
-    } catch (Exception e) {
+      return s3.getObject(objectRequest);
+    } catch (NoSuchKeyException | NoSuchBucketException e) {
       return null;
+    } catch (SdkException e) {
+      throw new IOException("Failed reading " + bucketName + "/" + key, e);
     }
   }
 
-  public void uploadString(String bucketName, String key, String content) {
+  @Override
+  public InputStream getFileStream(String bucketName, String key, long offset)
+      throws IOException {
+    if (offset == 0) {
+      InputStream stream = getFileStream(bucketName, key);
+      if (stream == null) throw new FileNotFoundException(bucketName + "/" + key + " not found");
+      return stream;
+    }
     try {
-      PutObjectRequest putObjectRequest =
-          PutObjectRequest.builder()
+      GetObjectRequest objectRequest =
+          GetObjectRequest.builder()
               .bucket(bucketName)
               .key(key)
-              .acl(ObjectCannedACL.PUBLIC_READ_WRITE)
+              .range("bytes=" + offset + "-")
               .build();
-      s3.putObject(putObjectRequest, RequestBody.fromString(content));
-    } catch (Exception e) {
-      e.printStackTrace();
+      return s3.getObject(objectRequest);
+    } catch (NoSuchKeyException | NoSuchBucketException e) {
+      throw new FileNotFoundException(bucketName + "/" + key + " not found");
+    } catch (S3Exception e) {
+      if (e.statusCode() == 416) return null; // Range not satisfiable, nothing left to read
+      throw new IOException("Failed reading " + bucketName + "/" + key + " from " + offset, e);
+    } catch (SdkException e) {
+      throw new IOException("Failed reading " + bucketName + "/" + key + " from " + offset, e);
+    }
+  }
+
+  @Override
+  public void uploadString(String bucketName, String key, String content) {
+    PutObjectRequest putObjectRequest =
+        PutObjectRequest.builder()
+            .bucket(bucketName)
+            .key(key)
+            .acl(ObjectCannedACL.PUBLIC_READ_WRITE)
+            .build();
+    s3.putObject(putObjectRequest, RequestBody.fromString(content));
+  }
+
+  @Override
+  public CompletableFuture<Void> uploadStringAsync(String bucketName, String key, String content) {
+    if (s3Async == null) s3Async = AwsClients.s3Async(region); // Only processes that upload async
+    PutObjectRequest putObjectRequest =
+        PutObjectRequest.builder()
+            .bucket(bucketName)
+            .key(key)
+            .acl(ObjectCannedACL.PUBLIC_READ_WRITE)
+            .build();
+    uploadPermits.acquireUninterruptibly();
+    try {
+      return s3Async
+          .putObject(putObjectRequest, AsyncRequestBody.fromString(content))
+          .whenComplete((response, error) -> uploadPermits.release())
+          .thenApply(response -> null);
+    } catch (RuntimeException e) {
+      uploadPermits.release();
+      return CompletableFuture.failedFuture(e);
     }
   }
 
+  // Fails instead of leaving the bucket without the file, nothing could process it
+  @Override
   public void createBucketAndUploadFile(String bucketName, String filePath) {
+    createBucket(bucketName);
+    Path file = Paths.get(filePath);
     try {
-      createBucket(bucketName);
-      PutObjectRequest putObjectRequest =
-          PutObjectRequest.builder()
-              .bucket(bucketName)
-              .key(filePath)
-              .acl(ObjectCannedACL.PUBLIC_READ_WRITE)
-              .build();
-      s3.putObject(putObjectRequest, Paths.get(filePath));
-    } catch (Exception e) {
-      e.printStackTrace();
+      if (Files.size(file) > uploader.getPartBytes()) {
+        uploader.upload(bucketName, filePath, file, ObjectCannedACL.PUBLIC_READ_WRITE);
+        return;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while uploading " + filePath, e);
     }
+    PutObjectRequest putObjectRequest =
+        PutObjectRequest.builder()
+            .bucket(bucketName)
+            .key(filePath)
+            .acl(ObjectCannedACL.PUBLIC_READ_WRITE)
+            .build();
+    s3.putObject(putObjectRequest, file);
   }
 
-  private void createBucket(String bucketName) {
-    CreateBucketRequest bucketRequest = CreateBucketRequest.builder().bucket(bucketName).build();
-    s3.createBucket(bucketRequest);
+  @Override
+  public void createBucket(String bucketName) {
+    try {
+      CreateBucketRequest bucketRequest = CreateBucketRequest.builder().bucket(bucketName).build();
+      s3.createBucket(bucketRequest);
+    } catch (BucketAlreadyOwnedByYouException e) {
+      // Bucket is already there, nothing to create
+    }
   }
 
+  @Override
   public void deleteObject(String bucketName, String key) {
     DeleteObjectRequest deleteObjectRequest =
         DeleteObjectRequest.builder().bucket(bucketName).key(key).build();
     s3.deleteObject(deleteObjectRequest);
   }
 
+  @Override
   public void streamBucket(String bucketName, S3ObjectCallback callback) {
     ListObjectsV2Request listObjectRequest =
         ListObjectsV2Request.builder().bucket(bucketName).build();
@@ -75,6 +162,7 @@ public class S3Adapter {
     listObjectResponse.stream().forEach(page -> page.contents().forEach(callback::objectAction));
   }
 
+  @Override
   public void deleteBucket(String bucketName) {
     try {
       streamBucket(bucketName, object -> deleteObject(bucketName, object.key()));
@@ -0,0 +1,157 @@
+package adapters;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Uploads a file as parts read straight from disk on a few threads, so a large input is neither
+// sent over one connection nor held in memory. A failed part is retried on its own, and an upload
+// that still fails is aborted so S3 does not keep its parts around.
+public class S3MultipartUploader {
+
+  private static final long MIN_PART_BYTES = 5L * 1024 * 1024; // Below this S3 rejects a part
+  private static final int MAX_PARTS = 10000;
+  private static final long RETRY_BACKOFF_MILLIS = 500;
+
+  private final S3Client s3;
+  private final long partBytes;
+  private final int threads;
+  private final int attempts;
+
+  public S3MultipartUploader(S3Client s3, long partBytes, int threads, int attempts) {
+    this.s3 = s3;
+    this.partBytes = Math.max(MIN_PART_BYTES, partBytes);
+    this.threads = threads;
+    this.attempts = attempts;
+  }
+
+  public long getPartBytes() {
+    return partBytes;
+  }
+
+  public void upload(String bucketName, String key, Path file, ObjectCannedACL acl)
+      throws IOException, InterruptedException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long partSize = Math.max(partBytes, (size + MAX_PARTS - 1) / MAX_PARTS);
+      int parts = (int) Math.max(1, (size + partSize - 1) / partSize);
+      String uploadId =
+          s3.createMultipartUpload(
+                  CreateMultipartUploadRequest.builder()
+                      .bucket(bucketName)
+                      .key(key)
+                      .acl(acl)
+                      .build())
+              .uploadId();
+      ExecutorService uploaders = Executors.newFixedThreadPool(Math.min(threads, parts));
+      try {
+        List<Future<CompletedPart>> uploads = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+          int partNumber = i + 1;
+          long offset = i * partSize;
+          long length = Math.min(partSize, size - offset);
+          uploads.add(
+              uploaders.submit(
+                  () ->
+                      uploadPart(bucketName, key, uploadId, partNumber, channel, offset, length)));
+        }
+        List<CompletedPart> completed = new ArrayList<>(parts);
+        for (Future<CompletedPart> upload : uploads) completed.add(upload.get());
+        s3.completeMultipartUpload(
+            CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+                .build());
+      } catch (ExecutionException | InterruptedException | RuntimeException e) {
+        uploaders.shutdownNow();
+        abort(bucketName, key, uploadId);
+        if (e instanceof InterruptedException) throw (InterruptedException) e;
+        Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+        if (cause instanceof IOException) throw (IOException) cause;
+        throw new IOException("Uploading " + file + " failed", cause);
+      } finally {
+        uploaders.shutdown();
+      }
+    }
+  }
+
+  private CompletedPart uploadPart(
+      String bucketName,
+      String key,
+      String uploadId,
+      int partNumber,
+      FileChannel channel,
+      long offset,
+      long length)
+      throws IOException, InterruptedException {
+    byte[] content = read(channel, offset, (int) length);
+    for (int attempt = 1; ; attempt++) {
+      try {
+        String eTag =
+            s3.uploadPart(
+                    UploadPartRequest.builder()
+                        .bucket(bucketName)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength(length)
+                        .build(),
+                    RequestBody.fromBytes(content))
+                .eTag();
+        return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+      } catch (SdkException e) {
+        if (attempt >= attempts || !isRetryable(e)) throw e;
+        System.err.printf("Retrying part %d of %s (attempt %d): %s%n", partNumber, key, attempt, e);
+        Thread.sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+      }
+    }
+  }
+
+  // Throttling and server errors are retried here on top of the client's own retries on purpose:
+  // giving up on one part aborts the whole upload and every part already sent. Any other status
+  // means S3 rejected the request, which stays rejected.
+  private static boolean isRetryable(SdkException e) {
+    if (!(e instanceof S3Exception)) return true;
+    int status = ((S3Exception) e).statusCode();
+    return status == 429 || status >= 500;
+  }
+
+  private static byte[] read(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException("File shrank during the upload");
+      }
+    }
+    return buffer.array();
+  }
+
+  private void abort(String bucketName, String key, String uploadId) {
+    try {
+      s3.abortMultipartUpload(
+          AbortMultipartUploadRequest.builder()
+              .bucket(bucketName)
+              .key(key)
+              .uploadId(uploadId)
+              .build());
+    } catch (SdkException e) {
+      System.err.printf("Failed aborting upload of %s: %s%n", key, e.getMessage());
+    }
+  }
+}
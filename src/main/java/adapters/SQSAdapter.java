@@ -1,16 +1,56 @@
 package adapters;
 
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class SQSAdapter {
+public class SQSAdapter implements MessageQueue {
+
+  public static final int MAX_BATCH_ENTRIES = 10;
+  private static final int MAX_BATCH_BYTES = 256 * 1024;
+  private static final long BATCH_LINGER_MILLIS = 100;
+  public static final int BATCH_VISIBILITY_TIMEOUT_SECONDS = 60 * 5;
+  private static final int VISIBILITY_TIMEOUT_SECONDS = 60 * 2;
+  static final int MAX_BATCH_ATTEMPTS = 3;
+  private static final long BATCH_RETRY_BACKOFF_MILLIS = 200;
+  private static final String RECEIVE_COUNT_ATTRIBUTE =
+      MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString();
+
+  private static final ExecutorService blockingReceivers =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "sqs-blocking-receive");
+            thread.setDaemon(true);
+            return thread;
+          });
 
   private SqsClient sqs;
   private final String queueURL;
 
+  private final BatchBuffer<String> sendBuffer =
+      new BatchBuffer<>(
+          MAX_BATCH_ENTRIES,
+          MAX_BATCH_BYTES,
+          BATCH_LINGER_MILLIS,
+          body -> body.getBytes(StandardCharsets.UTF_8).length,
+          this::sendMessageBatch);
+  private final BatchBuffer<Message> deleteBuffer =
+      new BatchBuffer<>(
+          MAX_BATCH_ENTRIES,
+          Long.MAX_VALUE,
+          BATCH_LINGER_MILLIS,
+          message -> 0,
+          this::deleteMessageBatch);
+
   public SQSAdapter(SqsClient sqs, String queueName, boolean create) {
     this.sqs = sqs;
     if (create) {
@@ -29,6 +69,7 @@ public class SQSAdapter {
     this.queueURL = queueURL;
   }
 
+  @Override
   public void deleteMessage(Message message) throws ExecutionException, InterruptedException {
     DeleteMessageRequest deleteRequest =
         DeleteMessageRequest.builder()
@@ -38,13 +79,135 @@ public class SQSAdapter {
     sqs.deleteMessage(deleteRequest);
   }
 
+  @Override
+  public void changeMessageVisibility(Message message, int timeoutSeconds) {
+    ChangeMessageVisibilityRequest visibilityRequest =
+        ChangeMessageVisibilityRequest.builder()
+            .queueUrl(queueURL)
+            .receiptHandle(message.receiptHandle())
+            .visibilityTimeout(timeoutSeconds)
+            .build();
+    sqs.changeMessageVisibility(visibilityRequest);
+  }
+
+  @Override
+  public List<Message> changeMessageVisibilityBatch(List<Message> messages, int timeoutSeconds) {
+    List<Message> failed = new ArrayList<>();
+    for (int start = 0; start < messages.size(); start += MAX_BATCH_ENTRIES) {
+      List<Message> batch =
+          messages.subList(start, Math.min(messages.size(), start + MAX_BATCH_ENTRIES));
+      ChangeMessageVisibilityBatchResponse response =
+          sqs.changeMessageVisibilityBatch(
+              createVisibilityBatchRequest(queueURL, batch, timeoutSeconds));
+      for (BatchResultErrorEntry failure : response.failed()) {
+        failed.add(batch.get(Integer.parseInt(failure.id())));
+      }
+    }
+    return failed;
+  }
+
+  static ChangeMessageVisibilityBatchRequest createVisibilityBatchRequest(
+      String queueURL, List<Message> messages, int timeoutSeconds) {
+    List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      entries.add(
+          ChangeMessageVisibilityBatchRequestEntry.builder()
+              .id(Integer.toString(i))
+              .receiptHandle(messages.get(i).receiptHandle())
+              .visibilityTimeout(timeoutSeconds)
+              .build());
+    }
+    return ChangeMessageVisibilityBatchRequest.builder()
+        .queueUrl(queueURL)
+        .entries(entries)
+        .build();
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteMessageBuffered(Message message) {
+    return deleteBuffer.add(message);
+  }
+
+  // Failed requests and entries SQS may accept later are retried, an entry is only failed once it
+  // was rejected for good or the attempts ran out
+  private void deleteMessageBatch(List<BatchBuffer.Entry<Message>> messages) {
+    List<BatchBuffer.Entry<Message>> remaining = messages;
+    for (int attempt = 1; ; attempt++) {
+      List<BatchBuffer.Entry<Message>> failed;
+      SdkException error = null;
+      try {
+        DeleteMessageBatchResponse response =
+            sqs.deleteMessageBatch(createDeleteBatchRequest(queueURL, remaining));
+        failed = settle(queueURL, remaining, response.failed());
+      } catch (SdkException e) {
+        error = e;
+        failed = remaining;
+      }
+      if (failed.isEmpty()) return;
+      if (attempt >= MAX_BATCH_ATTEMPTS) {
+        giveUp(
+            failed,
+            String.format(
+                "Failed deleting %d message(s) from %s after %d attempts",
+                failed.size(), queueURL, attempt),
+            error);
+        return;
+      }
+      remaining = failed;
+      sleepBeforeRetry(attempt);
+    }
+  }
+
+  static DeleteMessageBatchRequest createDeleteBatchRequest(
+      String queueURL, List<BatchBuffer.Entry<Message>> messages) {
+    List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      entries.add(
+          DeleteMessageBatchRequestEntry.builder()
+              .id(Integer.toString(i))
+              .receiptHandle(messages.get(i).getItem().receiptHandle())
+              .build());
+    }
+    return DeleteMessageBatchRequest.builder().queueUrl(queueURL).entries(entries).build();
+  }
+
+  // Completes the entries SQS accepted and fails the ones it rejected as invalid, such as an
+  // expired receipt handle. Returns the failed entries that are worth another attempt.
+  static <T> List<BatchBuffer.Entry<T>> settle(
+      String queueURL, List<BatchBuffer.Entry<T>> entries, List<BatchResultErrorEntry> failures) {
+    boolean[] failed = new boolean[entries.size()];
+    List<BatchBuffer.Entry<T>> retry = new ArrayList<>();
+    for (BatchResultErrorEntry failure : failures) {
+      int i = Integer.parseInt(failure.id());
+      failed[i] = true;
+      if (failure.senderFault()) {
+        System.err.printf("%s rejected a batch entry: %s%n", queueURL, failure.message());
+        entries.get(i).fail(new IllegalStateException(failure.code() + ": " + failure.message()));
+      } else {
+        retry.add(entries.get(i));
+      }
+    }
+    for (int i = 0; i < entries.size(); i++) {
+      if (!failed[i]) entries.get(i).complete();
+    }
+    return retry;
+  }
+
+  static <T> void giveUp(List<BatchBuffer.Entry<T>> entries, String reason, Throwable error) {
+    IllegalStateException e = new IllegalStateException(reason, error);
+    System.err.println(e);
+    entries.forEach(entry -> entry.fail(e));
+  }
+
+  @Override
   public boolean receiveMessage(MessageReceivedCallback callback) {
     ReceiveMessageRequest messageRequest =
         ReceiveMessageRequest.builder()
             .queueUrl(queueURL)
             .maxNumberOfMessages(1)
             .waitTimeSeconds(20)
-            .visibilityTimeout(60 * 2)
+            .visibilityTimeout(VISIBILITY_TIMEOUT_SECONDS)
+            .attributeNamesWithStrings(RECEIVE_COUNT_ATTRIBUTE)
             .build();
     ReceiveMessageResponse response = sqs.receiveMessage(messageRequest);
     if (response.hasMessages()) {
@@ -58,6 +221,7 @@ public class SQSAdapter {
     return false;
   }
 
+  @Override
   public void receiveMessageBatch(MessageReceivedCallback callback) {
     try {
       ReceiveMessageRequest messageRequest =
@@ -77,6 +241,94 @@ public class SQSAdapter {
     }
   }
 
+  @Override
+  public List<Message> receiveMessages(int maxMessages) {
+    ReceiveMessageRequest messageRequest =
+        ReceiveMessageRequest.builder()
+            .queueUrl(queueURL)
+            .maxNumberOfMessages(Math.min(maxMessages, MAX_BATCH_ENTRIES))
+            .waitTimeSeconds(20)
+            .visibilityTimeout(BATCH_VISIBILITY_TIMEOUT_SECONDS)
+            .attributeNamesWithStrings(RECEIVE_COUNT_ATTRIBUTE)
+            .build();
+    return sqs.receiveMessage(messageRequest).messages();
+  }
+
+  // This client can only block, so the long poll holds one of a shared pool's threads
+  @Override
+  public CompletableFuture<List<Message>> receiveMessagesAsync(int maxMessages) {
+    return CompletableFuture.supplyAsync(() -> receiveMessages(maxMessages), blockingReceivers);
+  }
+
+  @Override
+  public CompletableFuture<Void> sendMessageBuffered(String message) {
+    return sendBuffer.add(message);
+  }
+
+  // Failed requests and entries are sent again, an entry is only failed once it was rejected for
+  // good or the attempts ran out
+  private void sendMessageBatch(List<BatchBuffer.Entry<String>> messages) {
+    List<BatchBuffer.Entry<String>> remaining = messages;
+    for (int attempt = 1; ; attempt++) {
+      List<BatchBuffer.Entry<String>> failed;
+      SdkException error = null;
+      try {
+        SendMessageBatchResponse response =
+            sqs.sendMessageBatch(createSendBatchRequest(queueURL, remaining));
+        failed = settle(queueURL, remaining, response.failed());
+      } catch (SdkException e) {
+        error = e;
+        failed = remaining;
+      }
+      if (failed.isEmpty()) return;
+      if (attempt >= MAX_BATCH_ATTEMPTS) {
+        giveUp(
+            failed,
+            String.format(
+                "Failed sending %d message(s) to %s after %d attempts",
+                failed.size(), queueURL, attempt),
+            error);
+        return;
+      }
+      remaining = failed;
+      sleepBeforeRetry(attempt);
+    }
+  }
+
+  static SendMessageBatchRequest createSendBatchRequest(
+      String queueURL, List<BatchBuffer.Entry<String>> messages) {
+    List<SendMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      entries.add(
+          SendMessageBatchRequestEntry.builder()
+              .id(Integer.toString(i))
+              .messageBody(messages.get(i).getItem())
+              .build());
+    }
+    return SendMessageBatchRequest.builder().queueUrl(queueURL).entries(entries).build();
+  }
+
+  private static void sleepBeforeRetry(int attempt) {
+    try {
+      Thread.sleep(BATCH_RETRY_BACKOFF_MILLIS << (attempt - 1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt(); // Retried at once, the attempts stay bounded
+    }
+  }
+
+  @Override
+  public void setBatchExecutor(Executor executor) {
+    sendBuffer.setExecutor(executor);
+    deleteBuffer.setExecutor(executor);
+  }
+
+  @Override
+  public void flush() {
+    sendBuffer.flush();
+    deleteBuffer.flush();
+  }
+
+  @Override
   public void sendMessage(final String message) {
     try {
       SendMessageRequest sendMessageRequest =
@@ -87,11 +339,29 @@ public class SQSAdapter {
     }
   }
 
+  @Override
+  public int getApproximateDepth() {
+    return getIntAttribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES);
+  }
+
+  @Override
+  public int getApproximateInFlight() {
+    return getIntAttribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE);
+  }
+
+  private int getIntAttribute(QueueAttributeName attribute) {
+    GetQueueAttributesRequest attributesRequest =
+        GetQueueAttributesRequest.builder().queueUrl(queueURL).attributeNames(attribute).build();
+    return Integer.parseInt(sqs.getQueueAttributes(attributesRequest).attributes().get(attribute));
+  }
+
+  @Override
   public void deleteQueue() {
     DeleteQueueRequest deleteQueueRequest = DeleteQueueRequest.builder().queueUrl(queueURL).build();
     sqs.deleteQueue(deleteQueueRequest);
   }
 
+  @Override
   public String getQueueURL() {
     return queueURL;
   }
@@ -0,0 +1,316 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+// Queue on the non-blocking SQS client. Receives complete without holding a thread for the long
+// poll, and buffered sends and deletes go out without waiting for their response, up to a bound
+// on requests in flight that makes producers wait instead of piling up unsent batches.
+public class SQSAsyncAdapter implements MessageQueue {
+
+  private static final int MAX_BATCH_BYTES = 256 * 1024;
+  private static final long BATCH_LINGER_MILLIS = 100;
+  private static final int VISIBILITY_TIMEOUT_SECONDS = 60 * 2;
+  private static final int MAX_IN_FLIGHT_REQUESTS = 256;
+  private static final String RECEIVE_COUNT_ATTRIBUTE =
+      MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString();
+
+  private final SqsAsyncClient sqs;
+  private final String queueURL;
+  private final Semaphore inFlightPermits = new Semaphore(MAX_IN_FLIGHT_REQUESTS);
+  private int pendingRequests = 0;
+
+  private final BatchBuffer<String> sendBuffer =
+      new BatchBuffer<>(
+          SQSAdapter.MAX_BATCH_ENTRIES,
+          MAX_BATCH_BYTES,
+          BATCH_LINGER_MILLIS,
+          body -> body.getBytes(StandardCharsets.UTF_8).length,
+          messages -> sendMessageBatch(messages, 1));
+  private final BatchBuffer<Message> deleteBuffer =
+      new BatchBuffer<>(
+          SQSAdapter.MAX_BATCH_ENTRIES,
+          Long.MAX_VALUE,
+          BATCH_LINGER_MILLIS,
+          message -> 0,
+          messages -> deleteMessageBatch(messages, 1));
+
+  public SQSAsyncAdapter(SqsAsyncClient sqs, String queueName, boolean create) {
+    this.sqs = sqs;
+    if (create) {
+      queueURL =
+          join(sqs.createQueue(CreateQueueRequest.builder().queueName(queueName).build()))
+              .queueUrl();
+    } else {
+      queueURL =
+          join(sqs.getQueueUrl(GetQueueUrlRequest.builder().queueName(queueName).build()))
+              .queueUrl();
+    }
+  }
+
+  public SQSAsyncAdapter(SqsAsyncClient sqs, String queueURL) {
+    this.sqs = sqs;
+    this.queueURL = queueURL;
+  }
+
+  @Override
+  public void sendMessage(String message) {
+    try {
+      join(
+          sqs.sendMessage(
+              SendMessageRequest.builder().queueUrl(queueURL).messageBody(message).build()));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> sendMessageBuffered(String message) {
+    return sendBuffer.add(message);
+  }
+
+  // Failed entries are resent before this request counts as answered, so flush covers them
+  private void sendMessageBatch(List<BatchBuffer.Entry<String>> messages, int attempt) {
+    SendMessageBatchRequest sendRequest = SQSAdapter.createSendBatchRequest(queueURL, messages);
+    track(
+        () -> sqs.sendMessageBatch(sendRequest),
+        (response, error) -> {
+          List<BatchBuffer.Entry<String>> failed =
+              error != null ? messages : SQSAdapter.settle(queueURL, messages, response.failed());
+          if (failed.isEmpty()) return;
+          if (attempt < SQSAdapter.MAX_BATCH_ATTEMPTS) {
+            sendMessageBatch(failed, attempt + 1);
+          } else {
+            SQSAdapter.giveUp(
+                failed,
+                String.format(
+                    "Failed sending %d message(s) to %s after %d attempts",
+                    failed.size(), queueURL, attempt),
+                error);
+          }
+        });
+  }
+
+  @Override
+  public boolean receiveMessage(MessageReceivedCallback callback) {
+    ReceiveMessageRequest messageRequest =
+        ReceiveMessageRequest.builder()
+            .queueUrl(queueURL)
+            .maxNumberOfMessages(1)
+            .waitTimeSeconds(20)
+            .visibilityTimeout(VISIBILITY_TIMEOUT_SECONDS)
+            .attributeNamesWithStrings(RECEIVE_COUNT_ATTRIBUTE)
+            .build();
+    List<Message> messages = join(sqs.receiveMessage(messageRequest)).messages();
+    if (messages.isEmpty()) return false;
+    try {
+      callback.onReceive(messages.get(0));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  @Override
+  public void receiveMessageBatch(MessageReceivedCallback callback) {
+    try {
+      for (Message message : receiveMessages(SQSAdapter.MAX_BATCH_ENTRIES)) {
+        callback.onReceive(message);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public List<Message> receiveMessages(int maxMessages) {
+    return join(receiveMessagesAsync(maxMessages));
+  }
+
+  @Override
+  public CompletableFuture<List<Message>> receiveMessagesAsync(int maxMessages) {
+    ReceiveMessageRequest messageRequest =
+        ReceiveMessageRequest.builder()
+            .queueUrl(queueURL)
+            .maxNumberOfMessages(Math.min(maxMessages, SQSAdapter.MAX_BATCH_ENTRIES))
+            .waitTimeSeconds(20)
+            .visibilityTimeout(SQSAdapter.BATCH_VISIBILITY_TIMEOUT_SECONDS)
+            .attributeNamesWithStrings(RECEIVE_COUNT_ATTRIBUTE)
+            .build();
+    return sqs.receiveMessage(messageRequest).thenApply(ReceiveMessageResponse::messages);
+  }
+
+  @Override
+  public void deleteMessage(Message message) throws ExecutionException, InterruptedException {
+    sqs.deleteMessage(
+            DeleteMessageRequest.builder()
+                .queueUrl(queueURL)
+                .receiptHandle(message.receiptHandle())
+                .build())
+        .get();
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteMessageBuffered(Message message) {
+    return deleteBuffer.add(message);
+  }
+
+  // Retried like failed sends, entries SQS rejected as invalid are failed at once
+  private void deleteMessageBatch(List<BatchBuffer.Entry<Message>> messages, int attempt) {
+    DeleteMessageBatchRequest deleteRequest =
+        SQSAdapter.createDeleteBatchRequest(queueURL, messages);
+    track(
+        () -> sqs.deleteMessageBatch(deleteRequest),
+        (response, error) -> {
+          List<BatchBuffer.Entry<Message>> failed =
+              error != null ? messages : SQSAdapter.settle(queueURL, messages, response.failed());
+          if (failed.isEmpty()) return;
+          if (attempt < SQSAdapter.MAX_BATCH_ATTEMPTS) {
+            deleteMessageBatch(failed, attempt + 1);
+          } else {
+            SQSAdapter.giveUp(
+                failed,
+                String.format(
+                    "Failed deleting %d message(s) from %s after %d attempts",
+                    failed.size(), queueURL, attempt),
+                error);
+          }
+        });
+  }
+
+  @Override
+  public void changeMessageVisibility(Message message, int timeoutSeconds) {
+    join(
+        sqs.changeMessageVisibility(
+            ChangeMessageVisibilityRequest.builder()
+                .queueUrl(queueURL)
+                .receiptHandle(message.receiptHandle())
+                .visibilityTimeout(timeoutSeconds)
+                .build()));
+  }
+
+  @Override
+  public List<Message> changeMessageVisibilityBatch(List<Message> messages, int timeoutSeconds) {
+    List<List<Message>> batches = new ArrayList<>();
+    List<CompletableFuture<ChangeMessageVisibilityBatchResponse>> responses = new ArrayList<>();
+    for (int start = 0; start < messages.size(); start += SQSAdapter.MAX_BATCH_ENTRIES) {
+      List<Message> batch =
+          messages.subList(
+              start, Math.min(messages.size(), start + SQSAdapter.MAX_BATCH_ENTRIES));
+      batches.add(batch);
+      responses.add(
+          sqs.changeMessageVisibilityBatch(
+              SQSAdapter.createVisibilityBatchRequest(queueURL, batch, timeoutSeconds)));
+    }
+    List<Message> failed = new ArrayList<>();
+    for (int i = 0; i < batches.size(); i++) {
+      for (BatchResultErrorEntry failure : join(responses.get(i)).failed()) {
+        failed.add(batches.get(i).get(Integer.parseInt(failure.id())));
+      }
+    }
+    return failed;
+  }
+
+  // Batches are only handed to the client, the executor never waits for a response
+  @Override
+  public void setBatchExecutor(Executor executor) {
+    sendBuffer.setExecutor(executor);
+    deleteBuffer.setExecutor(executor);
+  }
+
+  // Also waits for the responses, including any resend of failed entries they trigger
+  @Override
+  public void flush() {
+    boolean interrupted = false;
+    sendBuffer.flush();
+    deleteBuffer.flush();
+    synchronized (this) {
+      while (pendingRequests > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) Thread.currentThread().interrupt();
+  }
+
+  @Override
+  public int getApproximateDepth() {
+    return getIntAttribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES);
+  }
+
+  @Override
+  public int getApproximateInFlight() {
+    return getIntAttribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE);
+  }
+
+  private int getIntAttribute(QueueAttributeName attribute) {
+    GetQueueAttributesRequest attributesRequest =
+        GetQueueAttributesRequest.builder().queueUrl(queueURL).attributeNames(attribute).build();
+    return Integer.parseInt(
+        join(sqs.getQueueAttributes(attributesRequest)).attributes().get(attribute));
+  }
+
+  @Override
+  public void deleteQueue() {
+    join(sqs.deleteQueue(DeleteQueueRequest.builder().queueUrl(queueURL).build()));
+  }
+
+  @Override
+  public String getQueueURL() {
+    return queueURL;
+  }
+
+  // Waits for a permit so that at most MAX_IN_FLIGHT_REQUESTS batches are unanswered, the
+  // request stays pending until its handler has run
+  private <T> void track(
+      Supplier<CompletableFuture<T>> request, BiConsumer<T, Throwable> handler) {
+    inFlightPermits.acquireUninterruptibly();
+    synchronized (this) {
+      pendingRequests++;
+    }
+    CompletableFuture<T> response;
+    try {
+      response = request.get();
+    } catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+    response.whenComplete(
+        (result, error) -> {
+          inFlightPermits.release();
+          try {
+            handler.accept(result, error);
+          } catch (RuntimeException e) {
+            e.printStackTrace();
+          } finally {
+            synchronized (this) {
+              pendingRequests--;
+              notifyAll();
+            }
+          }
+        });
+  }
+
+  // Same exceptions as the blocking client throws
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+
+public class SQSAsyncQueueProvider implements QueueProvider {
+
+  private final SqsAsyncClient sqs;
+
+  public SQSAsyncQueueProvider(SqsAsyncClient sqs) {
+    this.sqs = sqs;
+  }
+
+  @Override
+  public MessageQueue getQueue(String queueName, boolean create) {
+    return new SQSAsyncAdapter(sqs, queueName, create);
+  }
+
+  @Override
+  public MessageQueue getQueueByURL(String queueURL) {
+    return new SQSAsyncAdapter(sqs, queueURL);
+  }
+}
@@ -0,0 +1,22 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+public class SQSQueueProvider implements QueueProvider {
+
+  private final SqsClient sqs;
+
+  public SQSQueueProvider(SqsClient sqs) {
+    this.sqs = sqs;
+  }
+
+  @Override
+  public MessageQueue getQueue(String queueName, boolean create) {
+    return new SQSAdapter(sqs, queueName, create);
+  }
+
+  @Override
+  public MessageQueue getQueueByURL(String queueURL) {
+    return new SQSAdapter(sqs, queueURL);
+  }
+}
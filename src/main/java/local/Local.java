@@ -1,15 +1,19 @@
 package local;
 
+import adapters.AwsClients;
+import adapters.BlobStorage;
+import adapters.MessageQueue;
+import adapters.QueueProvider;
 import adapters.S3Adapter;
-import adapters.SQSAdapter;
+import adapters.SQSQueueProvider;
 import protocol.MessageProtocol;
+import protocol.ProtocolMessage;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
 import software.amazon.awssdk.services.cloudwatch.model.*;
 import software.amazon.awssdk.services.ec2.Ec2Client;
 import software.amazon.awssdk.services.ec2.model.Tag;
 import software.amazon.awssdk.services.ec2.model.*;
-import software.amazon.awssdk.services.sqs.SqsClient;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -17,13 +21,11 @@ import java.util.Base64;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class Local {
 
   private static final Region REGION = Region.US_EAST_1;
-  private static final UUID appId = UUID.randomUUID();
+  private static UUID appId = UUID.randomUUID(); // Or the resumed job's
   private static final String JAR_BUCKET =
       String.format("%s-%s", MessageProtocol.BUCKET_PREFIX, "jar-files");
 
@@ -33,22 +35,27 @@ public class Local {
   private static String iamArn;
   private static String userId;
   private static boolean terminateManager;
+  private static ResumeToken resumeToken;
 
-  private static S3Adapter managerStorageAdapter;
+  private static BlobStorage managerStorageAdapter;
 
   private static Ec2Client ec2;
   private static CloudWatchClient cw;
 
-  private static SQSAdapter responseQueue;
-  private static SQSAdapter taskQueue;
+  private static MessageQueue responseQueue;
+  private static MessageQueue taskQueue;
 
   private static final String MANAGER_AMI = "ami-031460345a19f545b";
   private static final String WORKER_AMI = "ami-0d6c1006bc5c1bac7";
   private static final String queueAppManagerName = "manager_tasks";
   private static final String IAM_ARN_FILENAME = "iam_arn.txt";
+  private static final int REPORT_PREFETCH_PARALLELISM = 8;
 
   private static volatile boolean receivedResponse = false;
-  private static boolean coldStart = false;
+  private static volatile boolean coldStart = false;
+  // The report is written as the manager stores results, so whatever arrived survives a failure
+  private static BufferedWriter reportOut;
+  private static ReportWriter report;
   private static long startTimeMS;
 
   public static void main(String[] args) {
@@ -72,16 +79,22 @@ public class Local {
       System.err.println(
           "Wrong argument format, provide one of the following:\n"
               + "\t<input_file> <output_file> <lines_per_worker>\n"
-              + "\t<input_file> <output_file> <lines_per_worker> <terminate>\n");
+              + "\t<input_file> <output_file> <lines_per_worker> <terminate>\n"
+              + "\tresume <output_file>\n");
       return;
     }
 
-    ec2 = Ec2Client.builder().region(REGION).build();
-    cw = CloudWatchClient.builder().region(REGION).build();
+    ec2 = AwsClients.ec2(REGION);
+    cw = AwsClients.cloudWatch(REGION);
 
-    SqsClient sqs = SqsClient.builder().region(REGION).build();
-    taskQueue = new SQSAdapter(sqs, queueAppManagerName, true);
-    responseQueue = new SQSAdapter(sqs, appId.toString(), true);
+    QueueProvider queues = new SQSQueueProvider(AwsClients.sqs(REGION));
+    taskQueue = queues.getQueue(queueAppManagerName, true);
+    try {
+      responseQueue = queues.getQueue(appId.toString(), resumeToken == null);
+    } catch (RuntimeException e) {
+      System.err.printf("Job %s no longer exists: %s%n", appId, e.getMessage());
+      return;
+    }
 
     managerStorageAdapter = new S3Adapter(REGION);
     start();
@@ -90,12 +103,38 @@ public class Local {
   private static void start() {
     startTimeMS = System.currentTimeMillis();
     try {
-      managerStorageAdapter.createBucketAndUploadFile(appId.toString(), inputFile);
-      sendManagerTask();
+      if (resumeToken != null) {
+        resume();
+      } else {
+        managerStorageAdapter.createBucketAndUploadFile(appId.toString(), inputFile);
+        sendManagerTask();
+        writeResumeToken();
+      }
       startResponseListener(appId.toString());
-      startManagerNode();
-    } catch (InterruptedException | ExecutionException | IOException e) {
-      System.err.println("Application terminated without result.\n");
+      if (resumeToken != null && checkIfManagerActive()) {
+        System.out.println("Manager is running, waiting for it to finish the job.");
+      } else {
+        startManagerNode(); // A manager started after a crash recovers the job from its journal
+      }
+    } catch (InterruptedException | ExecutionException | IOException | RuntimeException e) {
+      System.err.printf("Application terminated without result: %s%n", e.getMessage());
+    }
+  }
+
+  // Continues like the original run would, the manager's next message renders the results so far
+  private static void resume() throws IOException {
+    startTimeMS = resumeToken.getStartTimeMS();
+    openReport();
+    System.out.printf("Reattached to %s, results go to %s%n", appId, outputFile);
+  }
+
+  // Losing the token only loses the ability to resume, the job itself is already submitted
+  private static void writeResumeToken() {
+    File tokenFile = ResumeToken.fileFor(outputFile);
+    try {
+      new ResumeToken(appId, startTimeMS).write(tokenFile);
+    } catch (IOException e) {
+      System.err.printf("Could not write resume token %s: %s%n", tokenFile, e.getMessage());
     }
   }
 
@@ -107,16 +146,40 @@ public class Local {
                     message -> {
                       try {
                         long totalTimeMS = System.currentTimeMillis() - startTimeMS;
-                        String[] messageSplits = MessageProtocol.split(message.body());
-                        if (messageSplits[0].equals(MessageProtocol.MANAGER_DONE)) {
-                          generateHTMLFromBucket(bucketName, ((double) totalTimeMS / 1000));
-                        } else if(messageSplits[0].equals(MessageProtocol.MANAGER_TERMINATED)) {
+                        ProtocolMessage response = MessageProtocol.parse(message.body());
+                        ProtocolMessage.Type type = response.getType();
+                        if (type == ProtocolMessage.Type.MANAGER_DEFERRED) {
+                          System.out.println("Manager is at capacity, the job is queued.");
+                          responseQueue.deleteMessage(message);
+                          return;
+                        }
+                        if (type == ProtocolMessage.Type.MANAGER_PROGRESS) {
+                          try {
+                            renderProgress((ProtocolMessage.ManagerProgress) response);
+                          } catch (IOException e) { // The next progress or the end retries it
+                            System.err.println("Results not rendered yet: " + e.getMessage());
+                          }
+                          responseQueue.deleteMessage(message);
+                          return;
+                        }
+                        if (type == ProtocolMessage.Type.MANAGER_DONE) {
+                          openReport();
+                          renderDone((ProtocolMessage.ManagerDone) response);
+                          closeReport((double) totalTimeMS / 1000);
+                        } else if (type == ProtocolMessage.Type.MANAGER_FAILED) {
+                          System.err.printf(
+                              "The manager failed the job: %s%n",
+                              ((ProtocolMessage.ManagerFailed) response).getReason());
+                          closeReport(-1); // Keeps the rows written so far
+                        } else if (type == ProtocolMessage.Type.MANAGER_TERMINATED) {
                           System.err.println("Manager already terminated, no output given.\n");
+                          closeReport(-1);
                           generateTerminationHTML(((double) totalTimeMS / 1000));
                         }
                         responseQueue.deleteMessage(message);
                       } catch (IOException | ExecutionException | InterruptedException e) {
-                        System.err.println("Application terminated unexpectedly without result.\n");
+                        System.err.println("Application terminated unexpectedly: " + e + "\n");
+                        closeReport(-1); // Keeps the rows written so far
                       }
                       terminate(bucketName);
                       receivedResponse = true;
@@ -129,10 +192,22 @@ public class Local {
   private static void terminate(String bucketName) {
     managerStorageAdapter.deleteBucket(bucketName);
     responseQueue.deleteQueue();
+    ResumeToken.fileFor(outputFile).delete();
   }
 
   private static boolean parseArgs(String[] args) {
     switch (args.length) {
+      case 2:
+        if (!args[0].equals("resume")) return false;
+        outputFile = args[1];
+        try {
+          resumeToken = ResumeToken.read(ResumeToken.fileFor(outputFile));
+        } catch (IOException e) {
+          System.err.printf("No job to resume for %s: %s%n", outputFile, e.getMessage());
+          return false;
+        }
+        appId = resumeToken.getAppId();
+        return true;
       case 3:
       case 4:
         try {
@@ -264,56 +339,62 @@ public class Local {
     }
   }
 
-  private static void generateHTMLFromBucket(String bucketName, double totalTimeSec)
+  private static void renderDone(ProtocolMessage.ManagerDone done) throws IOException {
+    if (done.getSegments() == ProtocolMessage.ManagerDone.UNKNOWN_SEGMENTS) {
+      report.appendStoredSegments(true);
+    } else {
+      report.appendSegments(done.getSegments());
+    }
+  }
+
+  private static void renderProgress(ProtocolMessage.ManagerProgress progress)
       throws IOException {
-    try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
-      bw.write("<!DOCTYPE html>");
-      bw.write(
-          String.format(
-              "<html>\n"
-                  + "<head>\n"
-                  + "<title>Response %s</title>\n"
-                  + "</head>\n"
-                  + "<body>\n"
-                  + getHTMLStyle()
-                  + startHTMLTable(totalTimeSec),
-              appId.toString()));
-
-      AtomicInteger index = new AtomicInteger(1);
-      managerStorageAdapter.streamBucket(
-          bucketName,
-          object -> {
-            InputStream stream = managerStorageAdapter.getFileStream(bucketName, object.key());
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
-              String partialSummary = reader.lines().collect(Collectors.joining("\n"));
-              bw.write(generateImageTableCells(partialSummary, index.getAndIncrement()));
-            } catch (IOException e) {
-              System.err.printf(
-                  "Unable to read response from %s, key: %s%n", bucketName, object.key());
-            }
-          });
-
-      bw.write("\t</tbody>\n</table>" + "</body>\n" + "</html>");
+    openReport();
+    report.appendSegments(progress.getSegments());
+    System.out.printf("%d of the results are in %s%n", report.getRowCount(), outputFile);
+  }
+
+  private static void openReport() throws IOException {
+    if (report != null) return;
+    reportOut = new BufferedWriter(new FileWriter(outputFile));
+    reportOut.write("<!DOCTYPE html>");
+    reportOut.write(
+        String.format(
+            "<html>\n"
+                + "<head>\n"
+                + "<title>Response %s</title>\n"
+                + "</head>\n"
+                + "<body>\n"
+                + getHTMLStyle()
+                + startHTMLTable(),
+            appId.toString()));
+    reportOut.flush();
+    report =
+        new ReportWriter(
+            managerStorageAdapter, appId.toString(), reportOut, REPORT_PREFETCH_PARALLELISM);
+  }
+
+  // The request time is only known at the end, so it follows the table. A negative time leaves
+  // the report as far as it got.
+  private static void closeReport(double totalTimeSec) {
+    if (report == null) return;
+    report.close();
+    report = null;
+    try (BufferedWriter bw = reportOut) {
+      if (totalTimeSec >= 0) {
+        bw.write(
+            String.format(
+                "\t</tbody>\n</table>"
+                    + "<h1 style=\"text-align: center\">Request Time E2E: %.2f sec</h1>\n"
+                    + "</body>\n"
+                    + "</html>",
+                totalTimeSec));
+      }
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
 
-  private static String generateImageTableCells(String line, int index) {
-    String[] lineSplit = MessageProtocol.split(line);
-    String URL = lineSplit[0];
-    String resultText = lineSplit[1];
-    boolean isError = resultText.startsWith(MessageProtocol.ERROR_PREFIX);
-    return String.format(
-        "<tr>\n"
-            + "\t\t<td><h3>%d</h3></td>\n"
-            + "\t\t<td><a href=\"%s\">Image Link</a></td>\n"
-            + "\t\t<td><img src=\"%s\" width=\"800\"/></td>\n"
-            + "\t\t<td><h2 style=\"color: %s\">%s</h2></td>\n"
-            + "\t</tr>",
-        index, URL, URL, isError ? "red" : "black", resultText.replace("\n", "<br/>"));
-  }
-
   private static String getHTMLStyle() {
     return "<style>\n"
         + "\t.table {\n"
@@ -337,10 +418,10 @@ public class Local {
         + "</style>";
   }
 
-  private static String startHTMLTable(double totalTimeSec) {
+  private static String startHTMLTable() {
     return String.format(
         "<table class=\"table\">\n"
-            + "\t<caption><h1>OCR Output Response - Request Time E2E: %.2f sec%s</h1></caption>"
+            + "\t<caption><h1>OCR Output Response%s</h1></caption>"
             + "<thead>\n"
             + "\t<tr>\n"
             + "\t\t<th>Index</th>\n"
@@ -350,7 +431,7 @@ public class Local {
             + "\t</tr>\n"
             + "\t</thead>"
             + "\t<tbody>",
-        totalTimeSec, coldStart ? " (Cold start)" : "");
+        coldStart ? " (Cold start)" : "");
   }
 
   private static String getManagerBashScript() {
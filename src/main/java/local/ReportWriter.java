@@ -0,0 +1,219 @@
+package local;
+
+import adapters.BlobStorage;
+import protocol.MessageProtocol;
+import protocol.ResultSegment;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ReportWriter implements Closeable {
+
+  private static final int ROW_BUFFER_CHARS = 16 * 1024;
+  private static final int MAX_FETCH_ATTEMPTS = 3;
+  private static final long FETCH_RETRY_MILLIS = 500;
+
+  private static class PendingSegment {
+    private final String key;
+    private final int segmentIndex; // -1 when rendered outside the incremental methods
+    private final Future<byte[]> content;
+
+    private PendingSegment(String key, int segmentIndex, Future<byte[]> content) {
+      this.key = key;
+      this.segmentIndex = segmentIndex;
+      this.content = content;
+    }
+  }
+
+  private final BlobStorage storage;
+  private final String bucketName;
+  private final Writer out;
+  private final int parallelism;
+  private final ExecutorService fetchers;
+  private final ArrayDeque<PendingSegment> prefetched;
+  private StringBuilder row = new StringBuilder(ROW_BUFFER_CHARS);
+  private char[] rowChars = new char[ROW_BUFFER_CHARS]; // Written without copying into a String
+  private int index = 1;
+  private int nextSegment = 0; // First segment the incremental methods have not rendered
+
+  public ReportWriter(BlobStorage storage, String bucketName, Writer out, int parallelism) {
+    this.storage = storage;
+    this.bucketName = bucketName;
+    this.out = out;
+    this.parallelism = parallelism;
+    fetchers = Executors.newFixedThreadPool(parallelism);
+    prefetched = new ArrayDeque<>(parallelism);
+  }
+
+  public void writeBucket() throws IOException {
+    try {
+      storage.streamBucket(
+          bucketName,
+          object -> {
+            if (!ResultSegment.isSegmentKey(object.key())) return;
+            try {
+              appendSegment(object.key(), -1);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    drain();
+  }
+
+  // Renders the segments the manager reported stored that are not rendered yet. A segment that
+  // cannot be read stops the rendering there, the next call starts again from it.
+  public void appendSegments(int segmentCount) throws IOException {
+    for (int segmentIndex = nextSegment; segmentIndex < segmentCount; segmentIndex++) {
+      appendSegment(ResultSegment.segmentKey(segmentIndex), segmentIndex);
+    }
+    drain();
+  }
+
+  // Renders the stored segments that are not rendered yet, for a manager that does not report its
+  // segment count. Until the job is complete a missing segment may still be uploading, so
+  // rendering stops at the first gap.
+  public void appendStoredSegments(boolean complete) throws IOException {
+    TreeSet<Integer> stored = new TreeSet<>();
+    storage.streamBucket(
+        bucketName,
+        object -> {
+          if (ResultSegment.isSegmentKey(object.key())) {
+            stored.add(ResultSegment.segmentIndex(object.key()));
+          }
+        });
+    int expected = nextSegment;
+    for (int segmentIndex : stored.tailSet(nextSegment)) {
+      if (!complete && segmentIndex != expected) break;
+      appendSegment(ResultSegment.segmentKey(segmentIndex), segmentIndex);
+      expected = segmentIndex + 1;
+    }
+    drain();
+  }
+
+  // Segments are fetched in parallel but always rendered in the order they were appended
+  private void appendSegment(String key, int segmentIndex) throws IOException {
+    if (prefetched.size() >= parallelism) {
+      writeSegment(prefetched.poll());
+    }
+    prefetched.add(new PendingSegment(key, segmentIndex, fetchers.submit(() -> fetch(key))));
+  }
+
+  private void drain() throws IOException {
+    while (!prefetched.isEmpty()) {
+      writeSegment(prefetched.poll());
+    }
+    out.flush();
+  }
+
+  public int getRowCount() {
+    return index - 1;
+  }
+
+  private byte[] fetch(String key) throws IOException {
+    try (InputStream stream = storage.getFileStream(bucketName, key)) {
+      if (stream == null) throw new IOException("Missing result segment");
+      return stream.readAllBytes();
+    }
+  }
+
+  // A segment whose fetch failed is fetched again. If it still cannot be read, nothing after it is
+  // rendered, skipping it would leave its rows out of the report for good.
+  private void writeSegment(PendingSegment segment) throws IOException {
+    byte[] content;
+    try {
+      content = getContent(segment);
+    } catch (IOException e) {
+      prefetched.forEach(pending -> pending.content.cancel(true));
+      prefetched.clear();
+      out.flush();
+      throw e;
+    }
+    try (Reader reader =
+        new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
+      ResultSegment.readRecords(reader, this::writeRow);
+    }
+    if (segment.segmentIndex >= 0) nextSegment = segment.segmentIndex + 1;
+  }
+
+  private byte[] getContent(PendingSegment segment) throws IOException {
+    Throwable error;
+    try {
+      return segment.content.get();
+    } catch (ExecutionException e) {
+      error = e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching results", e);
+    }
+    for (int attempt = 2; attempt <= MAX_FETCH_ATTEMPTS; attempt++) {
+      System.err.printf(
+          "Fetching %s from %s again (attempt %d): %s%n", segment.key, bucketName, attempt, error);
+      sleepBeforeRetry();
+      try {
+        return fetch(segment.key);
+      } catch (IOException | RuntimeException e) {
+        error = e;
+      }
+    }
+    throw new IOException(
+        "Unable to read result segment " + segment.key + " from " + bucketName, error);
+  }
+
+  private static void sleepBeforeRetry() throws IOException {
+    try {
+      Thread.sleep(FETCH_RETRY_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching results", e);
+    }
+  }
+
+  private void writeRow(String URL, String resultText) throws IOException {
+    boolean isError = resultText.startsWith(MessageProtocol.ERROR_PREFIX);
+    row.setLength(0);
+    row.append("<tr>\n\t\t<td><h3>")
+        .append(index++)
+        .append("</h3></td>\n\t\t<td><a href=\"")
+        .append(URL)
+        .append("\">Image Link</a></td>\n\t\t<td><img src=\"")
+        .append(URL)
+        .append("\" width=\"800\"/></td>\n\t\t<td><h2 style=\"color: ")
+        .append(isError ? "red" : "black")
+        .append("\">");
+    for (int i = 0; i < resultText.length(); i++) {
+      char c = resultText.charAt(i);
+      if (c == '\n') row.append("<br/>");
+      else row.append(c);
+    }
+    row.append("</h2></td>\n\t</tr>");
+    int length = row.length();
+    if (rowChars.length < length) rowChars = new char[Math.max(length, rowChars.length * 2)];
+    row.getChars(0, length, rowChars, 0);
+    out.write(rowChars, 0, length);
+    if (row.capacity() > ROW_BUFFER_CHARS * 4) {
+      row = new StringBuilder(ROW_BUFFER_CHARS); // Do not hold on to a single huge row's buffer
+      rowChars = new char[ROW_BUFFER_CHARS];
+    }
+  }
+
+  @Override
+  public void close() {
+    fetchers.shutdownNow();
+  }
+}
@@ -0,0 +1,68 @@
+package local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.UUID;
+
+// Written next to the output file once a job is submitted and removed once its report is written,
+// so a client that crashed in between can find the job again and wait for it.
+public class ResumeToken {
+
+  private static final String SUFFIX = ".resume";
+
+  private final UUID appId;
+  private final long startTimeMS;
+
+  public ResumeToken(UUID appId, long startTimeMS) {
+    this.appId = appId;
+    this.startTimeMS = startTimeMS;
+  }
+
+  public static File fileFor(String outputFile) {
+    return new File(outputFile + SUFFIX);
+  }
+
+  public static ResumeToken read(File file) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    }
+    try {
+      return new ResumeToken(
+          UUID.fromString(properties.getProperty("appId")),
+          Long.parseLong(properties.getProperty("startTimeMS")));
+    } catch (IllegalArgumentException | NullPointerException e) {
+      throw new IOException("Invalid resume token " + file, e);
+    }
+  }
+
+  // Replaces the file at once, a crash while writing never leaves half a token
+  public void write(File file) throws IOException {
+    Properties properties = new Properties();
+    properties.setProperty("appId", appId.toString());
+    properties.setProperty("startTimeMS", Long.toString(startTimeMS));
+    File temporary = new File(file.getPath() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8)) {
+      properties.store(writer, null);
+    }
+    Files.move(
+        temporary.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  public UUID getAppId() {
+    return appId;
+  }
+
+  public long getStartTimeMS() {
+    return startTimeMS;
+  }
+}
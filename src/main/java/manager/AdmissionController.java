@@ -0,0 +1,92 @@
+package manager;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Bounds how many jobs run at once and how many of their images are in flight. Jobs over the
+// limit wait in arrival order with their application message still unacknowledged, and reading
+// a job's input blocks while too many images are outstanding.
+public class AdmissionController {
+
+  public enum Decision {
+    ADMITTED,
+    DEFERRED,
+    ALREADY_DEFERRED
+  }
+
+  private final int maxActiveJobs;
+  private final long maxInFlightImages;
+  private final Set<UUID> active = new HashSet<>();
+  private final LinkedHashMap<UUID, Message> pending = new LinkedHashMap<>();
+  private long inFlightImages = 0;
+
+  public AdmissionController(int maxActiveJobs, long maxInFlightImages) {
+    this.maxActiveJobs = maxActiveJobs;
+    this.maxInFlightImages = maxInFlightImages;
+  }
+
+  public synchronized Decision offer(UUID appId, Message message) {
+    if (active.contains(appId)) return Decision.ADMITTED; // Redelivered after a failed attempt
+    if (pending.containsKey(appId)) {
+      pending.put(appId, message); // Keep the latest receipt handle
+      return Decision.ALREADY_DEFERRED;
+    }
+    if (pending.isEmpty() && active.size() < maxActiveJobs) {
+      active.add(appId);
+      return Decision.ADMITTED;
+    }
+    pending.put(appId, message);
+    return Decision.DEFERRED;
+  }
+
+  // Admits a job recovered after a restart regardless of the limit, it was admitted before
+  public synchronized void restore(UUID appId) {
+    active.add(appId);
+  }
+
+  // Frees the job's slot and returns the message of the pending job admitted in its place
+  public synchronized Message finish(UUID appId) {
+    active.remove(appId);
+    notifyAll();
+    if (pending.isEmpty() || active.size() >= maxActiveJobs) return null;
+    Map.Entry<UUID, Message> next = pending.entrySet().iterator().next();
+    pending.remove(next.getKey());
+    active.add(next.getKey());
+    return next.getValue();
+  }
+
+  public synchronized void acquireImages(long count) throws InterruptedException {
+    while (inFlightImages > 0 && inFlightImages + count > maxInFlightImages) {
+      wait();
+    }
+    inFlightImages += count;
+  }
+
+  public synchronized void releaseImages(long count) {
+    inFlightImages = Math.max(0, inFlightImages - count);
+    notifyAll();
+  }
+
+  public synchronized List<Message> getPendingMessages() {
+    return new ArrayList<>(pending.values());
+  }
+
+  public synchronized void awaitNoPending() throws InterruptedException {
+    while (!pending.isEmpty()) {
+      wait();
+    }
+  }
+
+  public synchronized String getStats() {
+    return String.format(
+        "active jobs %d/%d, pending jobs %d, in flight images %d/%d",
+        active.size(), maxActiveJobs, pending.size(), inFlightImages, maxInFlightImages);
+  }
+}
@@ -0,0 +1,36 @@
+package manager;
+
+public class BatchSizer {
+
+  private static final double SMOOTHING = 0.2;
+  private static final double VISIBILITY_SAFETY_FACTOR = 0.5;
+
+  private final int initialBatchSize;
+  private final int maxBatchSize;
+  private final long visibilityTimeoutMillis;
+
+  private double averageImageMillis = -1; // Exponentially weighted, negative until observed
+
+  public BatchSizer(int initialBatchSize, int maxBatchSize, long visibilityTimeoutMillis) {
+    this.initialBatchSize = initialBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+  }
+
+  public synchronized void recordImageLatency(long elapsedMillis) {
+    if (averageImageMillis < 0) averageImageMillis = elapsedMillis;
+    else averageImageMillis += SMOOTHING * (elapsedMillis - averageImageMillis);
+  }
+
+  // Sized so that even a worker processing the batch serially finishes well within the timeout
+  public synchronized int getBatchSize() {
+    if (averageImageMillis < 0) return initialBatchSize;
+    double budgetMillis = visibilityTimeoutMillis * VISIBILITY_SAFETY_FACTOR;
+    int batchSize = (int) (budgetMillis / Math.max(1, averageImageMillis));
+    return Math.max(1, Math.min(maxBatchSize, batchSize));
+  }
+
+  public synchronized double getAverageImageMillis() {
+    return averageImageMillis;
+  }
+}
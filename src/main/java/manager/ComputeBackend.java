@@ -0,0 +1,12 @@
+package manager;
+
+public interface ComputeBackend {
+
+  int getActiveWorkerCount();
+
+  int getMaxWorkers();
+
+  void startWorkers(int workerCount); // Brings the active worker count up to at least workerCount
+
+  void terminateWorkers();
+}
@@ -0,0 +1,293 @@
+package manager;
+
+import adapters.MessageQueue;
+import protocol.MessageProtocol;
+import protocol.ProtocolMessage.Priority;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+// Holds every job's tasks in its own queue and feeds the shared worker queue with deficit round
+// robin, weighted by priority. Only a small window of tasks is kept on the worker queue so that a
+// job submitted late is not stuck behind everything an earlier job already dispatched.
+public class FairScheduler {
+
+  private static final int QUANTUM_IMAGES = 10;
+  private static final int MAX_QUEUED_TASKS_PER_JOB = 1000;
+  private static final int MIN_WINDOW_TASKS = 50;
+  private static final int WINDOW_TASKS_PER_WORKER = 20;
+  private static final long RECONCILE_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  public static class Task {
+    private final UUID appId;
+    private final long taskId;
+    private final List<String> imageURLs;
+    private final JobQueue queue;
+
+    private Task(UUID appId, long taskId, List<String> imageURLs, JobQueue queue) {
+      this.appId = appId;
+      this.taskId = taskId;
+      this.imageURLs = imageURLs;
+      this.queue = queue;
+    }
+
+    public UUID getAppId() {
+      return appId;
+    }
+
+    public long getTaskId() {
+      return taskId;
+    }
+
+    public List<String> getImageURLs() {
+      return imageURLs;
+    }
+  }
+
+  private static class JobQueue {
+    private final UUID appId;
+    private final int weight;
+    private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+    private long deficit = 0;
+    private int sending = 0;
+    private boolean active = false;
+    private boolean finished = false;
+
+    private JobQueue(UUID appId, int weight) {
+      this.appId = appId;
+      this.weight = weight;
+    }
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition taskAvailable = lock.newCondition();
+  private final Condition spaceAvailable = lock.newCondition();
+  private final Map<UUID, JobQueue> queues = new HashMap<>();
+  private final ArrayDeque<JobQueue> activeQueues = new ArrayDeque<>();
+  private int queuedTasks = 0;
+  private int outstandingTasks = 0;
+
+  private Thread dispatcher;
+  private volatile boolean running = false;
+
+  public static int getWeight(Priority priority) {
+    switch (priority) {
+      case HIGH:
+        return 4;
+      case LOW:
+        return 1;
+      default:
+        return 2;
+    }
+  }
+
+  public void register(UUID appId, Priority priority) {
+    lock.lock();
+    try {
+      queues.putIfAbsent(appId, new JobQueue(appId, getWeight(priority)));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Blocks while the job already has a full queue, which in turn slows down reading its input
+  public void submit(UUID appId, long taskId, List<String> imageURLs)
+      throws InterruptedException {
+    lock.lock();
+    try {
+      JobQueue queue = queues.get(appId);
+      if (queue == null) {
+        queue = new JobQueue(appId, getWeight(Priority.NORMAL));
+        queues.put(appId, queue);
+      }
+      while (queue.tasks.size() >= MAX_QUEUED_TASKS_PER_JOB) {
+        spaceAvailable.await();
+      }
+      queue.tasks.add(new Task(appId, taskId, List.copyOf(imageURLs), queue));
+      queuedTasks++;
+      if (!queue.active) {
+        queue.active = true;
+        activeQueues.add(queue);
+      }
+      taskAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Called once a job has submitted all of its tasks
+  public void finish(UUID appId) {
+    lock.lock();
+    try {
+      JobQueue queue = queues.get(appId);
+      if (queue == null) return;
+      queue.finished = true;
+      if (queue.tasks.isEmpty() && queue.sending == 0) queues.remove(appId);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Waits until every task submitted so far for the job is on the worker queue
+  public void awaitDispatched(UUID appId) throws InterruptedException {
+    lock.lock();
+    try {
+      JobQueue queue = queues.get(appId);
+      while (queue != null && (!queue.tasks.isEmpty() || queue.sending > 0)) {
+        spaceAvailable.await();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Deficit round robin: each visit adds weight * quantum images of credit to a job, which it
+  // spends on whole tasks. Returns null when nothing is queued.
+  public Task next() {
+    lock.lock();
+    try {
+      while (!activeQueues.isEmpty()) {
+        JobQueue queue = activeQueues.peek();
+        Task task = queue.tasks.peek();
+        if (task.imageURLs.size() > queue.deficit) {
+          queue.deficit += (long) queue.weight * QUANTUM_IMAGES;
+          activeQueues.add(activeQueues.poll());
+          continue;
+        }
+        queue.tasks.poll();
+        queue.deficit -= task.imageURLs.size();
+        queuedTasks--;
+        if (queue.tasks.isEmpty()) {
+          queue.deficit = 0; // Idle jobs do not bank credit
+          queue.active = false;
+          activeQueues.poll();
+          if (queue.finished && queue.sending == 0) queues.remove(queue.appId);
+        }
+        spaceAvailable.signalAll();
+        return task;
+      }
+      return null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void start(MessageQueue workerTasksQueue, IntSupplier activeWorkers) {
+    running = true;
+    dispatcher =
+        new Thread(() -> dispatchLoop(workerTasksQueue, activeWorkers), "fair-scheduler");
+    dispatcher.setDaemon(true);
+    dispatcher.start();
+  }
+
+  public void stop() {
+    running = false;
+    if (dispatcher != null) dispatcher.interrupt();
+  }
+
+  public void taskCompleted() {
+    lock.lock();
+    try {
+      if (outstandingTasks > 0) outstandingTasks--; // Redelivered tasks can complete twice
+      taskAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getQueuedTasks() {
+    lock.lock();
+    try {
+      return queuedTasks;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void dispatchLoop(MessageQueue workerTasksQueue, IntSupplier activeWorkers) {
+    long nextReconcile = System.currentTimeMillis() + RECONCILE_INTERVAL_MILLIS;
+    while (running) {
+      Task task;
+      lock.lock();
+      try {
+        while (activeQueues.isEmpty() || outstandingTasks >= getWindow(activeWorkers)) {
+          taskAvailable.await(1, TimeUnit.SECONDS);
+          if (!running) return;
+        }
+        task = next();
+        task.queue.sending++;
+        outstandingTasks++;
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+      CompletableFuture<Void> sent;
+      try {
+        sent =
+            workerTasksQueue.sendMessageBuffered(
+                MessageProtocol.createWorkerTaskMessage(task.appId, task.taskId, task.imageURLs));
+      } catch (RuntimeException e) {
+        sent = CompletableFuture.failedFuture(e);
+      }
+      sent.whenComplete((done, error) -> sendCompleted(task, error));
+      if (System.currentTimeMillis() >= nextReconcile) {
+        reconcile(workerTasksQueue);
+        nextReconcile = System.currentTimeMillis() + RECONCILE_INTERVAL_MILLIS;
+      }
+    }
+  }
+
+  // A task the queue gave up on goes back to the front of its job, so it is sent again and the
+  // job's checkpoint never moves past it
+  private void sendCompleted(Task task, Throwable error) {
+    lock.lock();
+    try {
+      JobQueue queue = task.queue;
+      queue.sending--;
+      if (error != null) {
+        System.err.printf("Requeueing task %d of %s: %s%n", task.taskId, task.appId, error);
+        if (outstandingTasks > 0) outstandingTasks--;
+        queue.tasks.addFirst(task);
+        queuedTasks++;
+        if (!queue.active) {
+          queue.active = true;
+          activeQueues.add(queue);
+        }
+        taskAvailable.signalAll();
+      } else if (queue.finished && queue.tasks.isEmpty() && queue.sending == 0) {
+        queues.remove(queue.appId);
+      }
+      spaceAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static int getWindow(IntSupplier activeWorkers) {
+    return Math.max(MIN_WINDOW_TASKS, activeWorkers.getAsInt() * WINDOW_TASKS_PER_WORKER);
+  }
+
+  // Lost completions would otherwise shrink the window for good
+  private void reconcile(MessageQueue workerTasksQueue) {
+    int observed =
+        workerTasksQueue.getApproximateDepth() + workerTasksQueue.getApproximateInFlight();
+    lock.lock();
+    try {
+      if (observed < outstandingTasks) {
+        outstandingTasks = observed;
+        taskAvailable.signalAll();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package manager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InFlightImages {
+
+  private final ConcurrentHashMap<String, Map<UUID, Integer>> requesters =
+      new ConcurrentHashMap<>(); // Image URL to the apps waiting on it and their line counts
+
+  private final LongAdder dispatched = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+
+  // Returns true if the caller is the first requester and should dispatch the image
+  public boolean register(UUID appId, String imageURL) {
+    boolean[] first = {false};
+    requesters.compute(
+        imageURL,
+        (url, waiting) -> {
+          if (waiting == null) {
+            waiting = new HashMap<>(2);
+            first[0] = true;
+          }
+          waiting.merge(appId, 1, Integer::sum);
+          return waiting;
+        });
+    if (first[0]) dispatched.increment();
+    else deduplicated.increment();
+    return first[0];
+  }
+
+  // Returns the apps and line counts waiting on the image, or null if nobody is waiting anymore
+  public Map<UUID, Integer> complete(String imageURL) {
+    return requesters.remove(imageURL);
+  }
+
+  public int size() {
+    return requesters.size();
+  }
+
+  public String getStats() {
+    return String.format(
+        "In flight images %d, dispatched %d, deduplicated %d",
+        requesters.size(), dispatched.sum(), deduplicated.sum());
+  }
+}
@@ -0,0 +1,62 @@
+package manager;
+
+import adapters.BlobStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+// Progress of reading a job's input, stored next to the input in the job's bucket. Every line
+// before the offset has been counted and its task sent, so ingestion can resume from there.
+public class IngestCheckpoint {
+
+  public static final String KEY = "ingest-checkpoint";
+
+  private final long offset;
+  private final long lines;
+  private final long dispatched;
+
+  public IngestCheckpoint(long offset, long lines, long dispatched) {
+    this.offset = offset;
+    this.lines = lines;
+    this.dispatched = dispatched;
+  }
+
+  // Starts from the beginning only when there is no checkpoint, one that cannot be read is thrown
+  // since starting over would dispatch its lines a second time
+  public static IngestCheckpoint read(BlobStorage storage, String bucketName) throws IOException {
+    try (InputStream stream = storage.getFileStream(bucketName, KEY)) {
+      if (stream == null) return new IngestCheckpoint(0, 0, 0);
+      String[] fields =
+          new String(stream.readAllBytes(), StandardCharsets.UTF_8).trim().split(" ");
+      return new IngestCheckpoint(
+          Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+    } catch (RuntimeException e) {
+      throw new IOException("Unreadable checkpoint in " + bucketName, e);
+    }
+  }
+
+  public void write(BlobStorage storage, String bucketName) throws IOException {
+    try {
+      storage.uploadString(bucketName, KEY, offset + " " + lines + " " + dispatched);
+    } catch (RuntimeException e) {
+      throw new IOException("Failed writing checkpoint in " + bucketName, e);
+    }
+  }
+
+  public static void delete(BlobStorage storage, String bucketName) {
+    storage.deleteObject(bucketName, KEY);
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getLines() {
+    return lines;
+  }
+
+  public long getDispatched() {
+    return dispatched;
+  }
+}
@@ -0,0 +1,382 @@
+package manager;
+
+import adapters.BlobStorage;
+import protocol.LengthPrefixedFields;
+import protocol.MessageProtocol;
+import protocol.ProtocolMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Durable record of the manager's jobs so that a rebooted manager can pick them up again. Every
+// record is appended as its own numbered log object in the journal bucket. Once enough records
+// pile up, the open jobs are written to a snapshot and the logs it covers are deleted, so that
+// recovery reads one snapshot and a short tail of logs. Records are written in order on a thread
+// of their own, and the journal's state only changes once a record is stored.
+public class JobJournal {
+
+  public static final String BUCKET =
+      String.format("%s-%s", MessageProtocol.BUCKET_PREFIX, "manager-journal");
+
+  private static final String SNAPSHOT_KEY = "snapshot";
+  private static final String LOG_PREFIX = "log/";
+  private static final int SNAPSHOT_INTERVAL_RECORDS = 64;
+  private static final int MAX_WRITE_ATTEMPTS = 4;
+  private static final long WRITE_BACKOFF_MILLIS = 250;
+
+  private static final String JOB_RECORD = "job";
+  private static final String SEGMENT_RECORD = "segment";
+  private static final String DONE_RECORD = "done";
+  private static final String TERMINATE_RECORD = "terminate";
+  private static final String EPOCH_RECORD = "epoch";
+
+  public static class JobEntry {
+    private final ProtocolMessage.AppTask task;
+    private final String queueURL;
+    private int segments = 0;
+    private long rows = 0;
+    private final Map<Integer, Long> uploadedAhead = new HashMap<>(); // Segments past a gap
+
+    private JobEntry(ProtocolMessage.AppTask task, String queueURL) {
+      this.task = task;
+      this.queueURL = queueURL;
+    }
+
+    public ProtocolMessage.AppTask getTask() {
+      return task;
+    }
+
+    public String getQueueURL() {
+      return queueURL;
+    }
+
+    // Result segments 0 to segments - 1 are stored in the job's bucket
+    public int getSegments() {
+      return segments;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+  }
+
+  private final BlobStorage storage;
+  private final Map<UUID, JobEntry> open = new LinkedHashMap<>();
+  private boolean terminateRequested = false;
+  private long epoch = 0;
+  private volatile long firstSequence = 0; // First log not covered by the snapshot
+  private volatile long nextSequence = 0; // Both only change on the writer after recovery
+
+  private final ExecutorService writer =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "journal-writer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  public JobJournal(BlobStorage storage) {
+    this.storage = storage;
+  }
+
+  // Loads the snapshot, replays the logs written after it and returns the unfinished jobs. Also
+  // starts a new epoch, one past that of the run that wrote the journal. Only a missing log ends
+  // the replay, a log that cannot be read fails the recovery.
+  public List<JobEntry> recover() throws IOException {
+    StringBuilder record = new StringBuilder();
+    synchronized (this) {
+      replay();
+      epoch++;
+      appendEpoch(record, epoch);
+    }
+    await(append(record, () -> {}));
+    synchronized (this) {
+      return new ArrayList<>(open.values());
+    }
+  }
+
+  private void replay() throws IOException {
+    storage.createBucket(BUCKET);
+    open.clear();
+    epoch = 0;
+    try (InputStream stream = storage.getFileStream(BUCKET, SNAPSHOT_KEY)) {
+      if (stream != null) {
+        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+        firstSequence = Long.parseLong(LengthPrefixedFields.readRequiredField(reader));
+        while (apply(reader)) {}
+      }
+    }
+    nextSequence = firstSequence;
+    while (true) {
+      try (InputStream stream = storage.getFileStream(BUCKET, logKey(nextSequence))) {
+        if (stream == null) break;
+        apply(new InputStreamReader(stream, StandardCharsets.UTF_8));
+      }
+      nextSequence++;
+    }
+  }
+
+  // Returns once the job is stored
+  public void jobStarted(ProtocolMessage.AppTask task, String queueURL) {
+    StringBuilder record = new StringBuilder();
+    appendJob(record, task, queueURL);
+    await(
+        append(
+            record,
+            () -> {
+              open.put(task.getAppId(), new JobEntry(task, queueURL));
+              terminateRequested |= task.isTerminate();
+            }));
+  }
+
+  // Segments upload concurrently, only a gap free prefix of them is recorded. Completes with a
+  // copy of the job's entry once a longer prefix is stored, or with null if it did not grow. The
+  // segments ahead are kept if the record could not be stored.
+  public CompletableFuture<JobEntry> segmentWritten(UUID appId, int segmentIndex, long rows) {
+    JobEntry entry;
+    int segments;
+    long totalRows;
+    synchronized (this) {
+      entry = open.get(appId);
+      if (entry == null || segmentIndex < entry.segments) {
+        return CompletableFuture.completedFuture(null);
+      }
+      entry.uploadedAhead.put(segmentIndex, rows);
+      segments = entry.segments;
+      totalRows = entry.rows;
+      while (entry.uploadedAhead.containsKey(segments)) {
+        totalRows += entry.uploadedAhead.get(segments++);
+      }
+      if (segments == entry.segments) return CompletableFuture.completedFuture(null);
+    }
+    StringBuilder record = new StringBuilder();
+    appendSegment(record, appId, segments, totalRows);
+    int recordedSegments = segments;
+    long recordedRows = totalRows;
+    return append(
+            record,
+            () -> {
+              if (recordedSegments <= entry.segments) return; // A later record got there first
+              for (int i = entry.segments; i < recordedSegments; i++) entry.uploadedAhead.remove(i);
+              entry.segments = recordedSegments;
+              entry.rows = recordedRows;
+            })
+        .thenApply(
+            stored -> {
+              JobEntry copy = new JobEntry(entry.task, entry.queueURL);
+              copy.segments = recordedSegments;
+              copy.rows = recordedRows;
+              return copy;
+            });
+  }
+
+  // Returns the finished job's entry once that is stored, or null if it was not open
+  public JobEntry jobFinished(UUID appId) {
+    JobEntry entry;
+    synchronized (this) {
+      entry = open.get(appId);
+    }
+    if (entry == null) return null;
+    StringBuilder record = new StringBuilder();
+    LengthPrefixedFields.appendField(record, DONE_RECORD);
+    LengthPrefixedFields.appendField(record, appId.toString());
+    await(append(record, () -> open.remove(appId)));
+    return entry;
+  }
+
+  public synchronized boolean isOpen(UUID appId) {
+    return open.containsKey(appId);
+  }
+
+  public synchronized boolean isTerminateRequested() {
+    return terminateRequested;
+  }
+
+  public synchronized long getEpoch() {
+    return epoch;
+  }
+
+  // Forgets everything after a clean shutdown, so the next manager starts empty. Records still
+  // being written are written first.
+  public void clear() {
+    await(
+        CompletableFuture.runAsync(
+            () -> {
+              for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+                storage.deleteObject(BUCKET, logKey(sequence));
+              }
+              storage.deleteObject(BUCKET, SNAPSHOT_KEY);
+              synchronized (this) {
+                open.clear();
+                terminateRequested = false;
+              }
+              firstSequence = nextSequence = 0;
+            },
+            writer));
+  }
+
+  public synchronized String getStats() {
+    return String.format(
+        "journal open jobs %d, logs since snapshot %d", open.size(), nextSequence - firstSequence);
+  }
+
+  // Stores the record on the writer, then applies its change holding the journal. A record that
+  // cannot be stored fails the future rather than being skipped. Recovery stops at the first
+  // missing log, so the next record takes the same sequence number instead of leaving a gap.
+  private CompletableFuture<Void> append(StringBuilder record, Runnable stored) {
+    return CompletableFuture.runAsync(
+        () -> {
+          write(logKey(nextSequence), record.toString());
+          nextSequence++;
+          synchronized (this) {
+            stored.run();
+          }
+          if (nextSequence - firstSequence >= SNAPSHOT_INTERVAL_RECORDS) snapshot();
+        },
+        writer);
+  }
+
+  // Same exceptions as writing on the calling thread
+  private static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+      throw e;
+    }
+  }
+
+  private void write(String key, String content) {
+    for (int attempt = 1; ; attempt++) {
+      try {
+        storage.uploadString(BUCKET, key, content);
+        return;
+      } catch (RuntimeException e) {
+        if (attempt >= MAX_WRITE_ATTEMPTS) {
+          throw new IllegalStateException("Failed writing journal " + key, e);
+        }
+        System.err.printf("Retrying journal %s (attempt %d): %s%n", key, attempt, e);
+        try {
+          Thread.sleep(WRITE_BACKOFF_MILLIS << (attempt - 1));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted writing journal " + key, e);
+        }
+      }
+    }
+  }
+
+  // Runs on the writer, so the state it copies is exactly that of the stored logs
+  private void snapshot() {
+    StringBuilder snapshot = new StringBuilder();
+    LengthPrefixedFields.appendField(snapshot, Long.toString(nextSequence));
+    synchronized (this) {
+      if (terminateRequested) LengthPrefixedFields.appendField(snapshot, TERMINATE_RECORD);
+      appendEpoch(snapshot, epoch);
+      for (JobEntry entry : open.values()) {
+        appendJob(snapshot, entry.task, entry.queueURL);
+        if (entry.segments > 0) {
+          appendSegment(snapshot, entry.task.getAppId(), entry.segments, entry.rows);
+        }
+      }
+    }
+    try {
+      write(SNAPSHOT_KEY, snapshot.toString());
+    } catch (IllegalStateException e) {
+      // The logs still hold every record, the next append tries again
+      System.err.println("Failed writing journal snapshot: " + e.getCause());
+      return;
+    }
+    long covered = firstSequence;
+    firstSequence = nextSequence;
+    try {
+      for (long sequence = covered; sequence < nextSequence; sequence++) {
+        storage.deleteObject(BUCKET, logKey(sequence));
+      }
+    } catch (RuntimeException e) { // Logs before the snapshot are never read again
+      System.err.println("Failed deleting journal logs: " + e);
+    }
+  }
+
+  // Returns false at the end of the input
+  private boolean apply(Reader reader) throws IOException {
+    String type = LengthPrefixedFields.readField(reader);
+    if (type == null) return false;
+    switch (type) {
+      case JOB_RECORD:
+        ProtocolMessage.AppTask task =
+            new ProtocolMessage.AppTask(
+                UUID.fromString(LengthPrefixedFields.readRequiredField(reader)),
+                LengthPrefixedFields.readRequiredField(reader),
+                Integer.parseInt(LengthPrefixedFields.readRequiredField(reader)),
+                Boolean.parseBoolean(LengthPrefixedFields.readRequiredField(reader)),
+                ProtocolMessage.Priority.valueOf(LengthPrefixedFields.readRequiredField(reader)));
+        String queueURL = LengthPrefixedFields.readRequiredField(reader);
+        open.put(task.getAppId(), new JobEntry(task, queueURL));
+        terminateRequested |= task.isTerminate();
+        break;
+      case SEGMENT_RECORD:
+        JobEntry entry = open.get(UUID.fromString(LengthPrefixedFields.readRequiredField(reader)));
+        int segments = Integer.parseInt(LengthPrefixedFields.readRequiredField(reader));
+        long rows = Long.parseLong(LengthPrefixedFields.readRequiredField(reader));
+        if (entry != null && segments > entry.segments) {
+          entry.segments = segments;
+          entry.rows = rows;
+        }
+        break;
+      case DONE_RECORD:
+        open.remove(UUID.fromString(LengthPrefixedFields.readRequiredField(reader)));
+        break;
+      case TERMINATE_RECORD:
+        terminateRequested = true; // The terminating job itself already finished
+        break;
+      case EPOCH_RECORD:
+        epoch = Long.parseLong(LengthPrefixedFields.readRequiredField(reader));
+        break;
+      default:
+        throw new IOException("Unknown journal record " + type);
+    }
+    return true;
+  }
+
+  private static void appendJob(
+      StringBuilder record, ProtocolMessage.AppTask task, String queueURL) {
+    LengthPrefixedFields.appendField(record, JOB_RECORD);
+    LengthPrefixedFields.appendField(record, task.getAppId().toString());
+    LengthPrefixedFields.appendField(record, task.getInputKey());
+    LengthPrefixedFields.appendField(record, Integer.toString(task.getLinesPerWorker()));
+    LengthPrefixedFields.appendField(record, Boolean.toString(task.isTerminate()));
+    LengthPrefixedFields.appendField(record, task.getPriority().name());
+    LengthPrefixedFields.appendField(record, queueURL);
+  }
+
+  // Records totals rather than increments so replaying a record twice is harmless
+  private static void appendSegment(StringBuilder record, UUID appId, int segments, long rows) {
+    LengthPrefixedFields.appendField(record, SEGMENT_RECORD);
+    LengthPrefixedFields.appendField(record, appId.toString());
+    LengthPrefixedFields.appendField(record, Integer.toString(segments));
+    LengthPrefixedFields.appendField(record, Long.toString(rows));
+  }
+
+  private static void appendEpoch(StringBuilder record, long epoch) {
+    LengthPrefixedFields.appendField(record, EPOCH_RECORD);
+    LengthPrefixedFields.appendField(record, Long.toString(epoch));
+  }
+
+  private static String logKey(long sequence) {
+    return String.format("%s%019d", LOG_PREFIX, sequence);
+  }
+}
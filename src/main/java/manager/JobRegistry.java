@@ -0,0 +1,223 @@
+package manager;
+
+import protocol.ProtocolMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Tracks running jobs without any shared lock, work for a job that is not registered yet is
+// parked and replayed on registration instead of blocking the calling thread
+public class JobRegistry {
+
+  private static final long PARK_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private static final int MAX_PARKED_PER_JOB = 10000;
+  // Task ids carry the manager run in their high bits, a response to a task sent before a restart
+  // cannot be taken for the task that reused its number after it
+  private static final int EPOCH_SHIFT = 40;
+  private static final long SEQUENCE_MASK = (1L << EPOCH_SHIFT) - 1;
+
+  public static class Job {
+    private final UUID appId;
+    private final String queueURL;
+    private final long epoch;
+    private final AtomicLong remainingLines = new AtomicLong(1); // Guard until dispatch is done
+    private final AtomicLong lastTaskId = new AtomicLong(ProtocolMessage.UNTRACKED_TASK);
+    private final TaskLedger answeredTasks = new TaskLedger();
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private final CompletableFuture<Job> completion = new CompletableFuture<>();
+    private final LongAdder controlPlaneNanos = new LongAdder();
+
+    private Job(UUID appId, String queueURL, long epoch) {
+      this.appId = appId;
+      this.queueURL = queueURL;
+      this.epoch = epoch;
+    }
+
+    public UUID getAppId() {
+      return appId;
+    }
+
+    public String getQueueURL() {
+      return queueURL;
+    }
+
+    public long getRemainingLines() {
+      return remainingLines.get();
+    }
+
+    public long nextTaskId() {
+      return epoch << EPOCH_SHIFT | lastTaskId.incrementAndGet();
+    }
+
+    public long getOutstandingTasks() {
+      return lastTaskId.get() - answeredTasks.getMarkedCount();
+    }
+
+    public CompletableFuture<Job> getCompletion() {
+      return completion;
+    }
+
+    // Time spent on the job's queue lookups, notifications and journal records, which does not
+    // grow with the number of images
+    public void addControlPlaneNanos(long nanos) {
+      controlPlaneNanos.add(nanos);
+    }
+  }
+
+  private static class Parked {
+    private final long parkedAtMillis = System.currentTimeMillis();
+    private final List<Consumer<Job>> actions = new ArrayList<>();
+  }
+
+  private final ConcurrentHashMap<UUID, Job> jobs = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<UUID, Parked> parked = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor();
+  private final LongAdder expiredActions = new LongAdder();
+  private final LongAdder duplicateResponses = new LongAdder();
+  private final LongAdder staleResponses = new LongAdder();
+  private final LongAdder finishedJobs = new LongAdder();
+  private final LongAdder finishedControlPlaneNanos = new LongAdder();
+  private final LongAccumulator maxControlPlaneNanos = new LongAccumulator(Math::max, 0);
+  private volatile long epoch = 0;
+
+  public JobRegistry() {
+    expirer.scheduleWithFixedDelay(this::expireParked, 1, 1, TimeUnit.MINUTES);
+  }
+
+  // Set before any job registers, a manager that recovered jobs runs in a later epoch than the one
+  // that sent their earlier tasks
+  public void setEpoch(long epoch) {
+    if (epoch < 0 || epoch > Long.MAX_VALUE >>> EPOCH_SHIFT) {
+      throw new IllegalArgumentException("Epoch out of range " + epoch);
+    }
+    this.epoch = epoch;
+  }
+
+  public Job register(UUID appId, String queueURL) {
+    Job job = jobs.computeIfAbsent(appId, id -> new Job(id, queueURL, epoch));
+    Parked waiting = parked.remove(appId);
+    if (waiting != null) {
+      synchronized (waiting) {
+        waiting.actions.forEach(action -> action.accept(job));
+        waiting.actions.clear();
+      }
+    }
+    return job;
+  }
+
+  public Job get(UUID appId) {
+    return jobs.get(appId);
+  }
+
+  public void addLines(Job job, long lines) {
+    job.remainingLines.addAndGet(lines);
+  }
+
+  // Returns true the first time a response for the task arrives. Responses for jobs that already
+  // finished are late duplicates, every task of a job is answered before its last line. Responses
+  // to tasks of an earlier manager run are stale, their lines were dispatched again on recovery.
+  public boolean acceptResponse(UUID appId, long taskId) {
+    if (taskId == ProtocolMessage.UNTRACKED_TASK) return true;
+    Job job = jobs.get(appId);
+    if (job != null && taskId >>> EPOCH_SHIFT != job.epoch) {
+      staleResponses.increment();
+      return false;
+    }
+    long sequence = taskId & SEQUENCE_MASK;
+    if (job != null && sequence <= job.lastTaskId.get() && job.answeredTasks.mark(sequence)) {
+      return true;
+    }
+    duplicateResponses.increment();
+    return false;
+  }
+
+  // Returns true for exactly one caller, the one that brought the job to zero remaining lines
+  public boolean completeLines(Job job, long lines) {
+    if (job.remainingLines.addAndGet(-lines) != 0) return false;
+    if (!job.completed.compareAndSet(false, true)) return false;
+    jobs.remove(job.appId, job);
+    job.completion.complete(job);
+    return true;
+  }
+
+  // Called once the job's last control plane call is done
+  public void recordFinished(Job job) {
+    long nanos = job.controlPlaneNanos.sum();
+    finishedJobs.increment();
+    finishedControlPlaneNanos.add(nanos);
+    maxControlPlaneNanos.accumulate(nanos);
+  }
+
+  // Runs the action now if the job is known, otherwise once it registers
+  public void runOrPark(UUID appId, Consumer<Job> action) {
+    Job job = jobs.get(appId);
+    if (job != null) {
+      action.accept(job);
+      return;
+    }
+    Parked waiting = parked.computeIfAbsent(appId, id -> new Parked());
+    synchronized (waiting) {
+      job = jobs.get(appId); // Registered while parking, its replay may already have run
+      if (job == null && waiting.actions.size() < MAX_PARKED_PER_JOB) {
+        waiting.actions.add(action);
+        if (parked.get(appId) == waiting) return;
+        waiting.actions.remove(waiting.actions.size() - 1); // Replayed concurrently
+        job = jobs.get(appId);
+      }
+      if (waiting.actions.isEmpty()) parked.remove(appId, waiting);
+    }
+    if (job != null) action.accept(job);
+    else expiredActions.increment();
+  }
+
+  public boolean isEmpty() {
+    return jobs.isEmpty();
+  }
+
+  public int size() {
+    return jobs.size();
+  }
+
+  public void stop() {
+    expirer.shutdownNow();
+  }
+
+  private void expireParked() {
+    long cutoff = System.currentTimeMillis() - PARK_TTL_MILLIS;
+    parked.forEach(
+        (appId, waiting) -> {
+          if (waiting.parkedAtMillis < cutoff && parked.remove(appId, waiting)) {
+            synchronized (waiting) {
+              expiredActions.add(waiting.actions.size());
+              waiting.actions.clear();
+            }
+          }
+        });
+  }
+
+  public String getStats() {
+    long finished = finishedJobs.sum();
+    return String.format(
+        "jobs running %d, parked for unknown jobs %d, expired %d, duplicate responses %d, "
+            + "stale %d, finished %d, control plane per job avg %.1f ms, max %.1f ms",
+        jobs.size(),
+        parked.size(),
+        expiredActions.sum(),
+        duplicateResponses.sum(),
+        staleResponses.sum(),
+        finished,
+        finished == 0 ? 0 : finishedControlPlaneNanos.sum() / 1e6 / finished,
+        maxControlPlaneNanos.get() / 1e6);
+  }
+}
@@ -1,20 +1,34 @@
 package manager;
 
+import adapters.AwsClients;
+import adapters.BlobStorage;
+import adapters.CachingQueueProvider;
+import adapters.MessagePump;
+import adapters.MessageQueue;
+import adapters.QueueProvider;
 import adapters.S3Adapter;
 import adapters.SQSAdapter;
-import org.javatuples.Pair;
+import adapters.SQSAsyncQueueProvider;
+import adapters.SQSQueueProvider;
+import protocol.ImageResult;
 import protocol.MessageProtocol;
+import protocol.PayloadStore;
+import protocol.ProtocolMessage;
+import protocol.ResultSegment;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.Message;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 
 public class Manager {
@@ -23,23 +37,57 @@ public class Manager {
   private static final String JAR_BUCKET =
       String.format("%s-%s", MessageProtocol.BUCKET_PREFIX, "jar-files");
 
-  private static final double MEMORY_PERCENTAGE_THRESHOLD = 0.9;
-  private static final int INACTIVE_KEEP_WORKER_MINUTE = 5;
-
-  private static final ConcurrentHashMap<UUID, Pair<String, LongAdder>> applicationLines =
-      new ConcurrentHashMap<>(); // Application id to application queue URL and current remaining tasks
-
-  private static final String workerTasksQueueName = "worker_tasks";
-  private static final String workerResponseQueueName = "worker_response";
-
-  private static final Object TASK_START_LOCK = new Object();
-
-  private static SqsClient sqs;
-  private static S3Adapter storage;
-  private static SQSAdapter appTasksQueue;
-  private static SQSAdapter workerTasksQueue;
-  private static SQSAdapter workerResponseQueue;
-  private static WorkerHandler workerHandler;
+  private static final int INITIAL_IMAGES_PER_TASK = 4;
+  private static final int MAX_IMAGES_PER_TASK = 10;
+  private static final int CHECKPOINT_INTERVAL_LINES = 10000;
+  private static final int INGESTERS_COUNT = 16;
+  private static final int MAX_ACTIVE_JOBS = 32;
+  private static final long MAX_IN_FLIGHT_IMAGES = 100000;
+  private static final int VISIBILITY_EXTENSION_SECONDS = 180;
+  private static final int VISIBILITY_REFRESH_SECONDS = 60;
+  private static final int MAX_INGEST_ATTEMPTS = 5;
+  private static final long INGEST_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final int MAX_RECOVERY_ATTEMPTS = 5;
+  private static final long RECOVERY_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final int QUEUE_CACHE_ENTRIES =
+      Integer.getInteger("manager.queue.cache.entries", 1024); // 0 looks up every time
+  // Worker responses are received by outstanding async receives instead of listener threads
+  private static final boolean ASYNC_MODE = Boolean.getBoolean("manager.async");
+  private static final int RESPONSE_POLLERS = Integer.getInteger("manager.async.pollers", 32);
+  // Buffered results older than this are stored so applications can render them, 0 waits for
+  // full segments
+  private static final long SEGMENT_MAX_AGE_MILLIS =
+      Long.getLong("manager.segment.max.age.ms", 5000);
+
+  private static final JobRegistry jobs = new JobRegistry();
+  private static final AdmissionController admission =
+      new AdmissionController(MAX_ACTIVE_JOBS, MAX_IN_FLIGHT_IMAGES);
+
+  public static final String workerTasksQueueName = "worker_tasks";
+  public static final String workerResponseQueueName = "worker_response";
+
+  private static CachingQueueProvider queues;
+  private static BlobStorage storage;
+  private static MessageQueue appTasksQueue;
+  private static MessageQueue workerTasksQueue;
+  private static MessageQueue workerResponseQueue;
+  private static ComputeBackend workerHandler;
+  private static ResultAggregator resultAggregator;
+  private static PayloadStore payloads;
+  private static WorkerAutoscaler autoscaler;
+  private static FairScheduler scheduler;
+  private static JobJournal journal;
+  private static MessagePump responsePump;
+  private static CompletableFuture<Void> responsePumpStopped;
+  // Jobs whose last segments are still uploading, keyed by application
+  private static final ConcurrentHashMap<UUID, CompletableFuture<Void>> finishingJobs =
+      new ConcurrentHashMap<>();
+  private static final InFlightImages inFlightImages = new InFlightImages();
+  private static final BatchSizer batchSizer =
+      new BatchSizer(
+          INITIAL_IMAGES_PER_TASK,
+          MAX_IMAGES_PER_TASK,
+          TimeUnit.SECONDS.toMillis(SQSAdapter.BATCH_VISIBILITY_TIMEOUT_SECONDS));
 
   private static final int WORKER_LISTENERS_COUNT = 6;
   private static final int TASK_SENDERS_COUNT = 6;
@@ -48,9 +96,13 @@ public class Manager {
       Executors.newFixedThreadPool(WORKER_LISTENERS_COUNT);
   private static ExecutorService taskHandlers = Executors.newFixedThreadPool(TASK_SENDERS_COUNT);
   private static ExecutorService appListener = Executors.newSingleThreadScheduledExecutor();
+  private static ExecutorService ingesters = Executors.newFixedThreadPool(INGESTERS_COUNT);
+  private static ScheduledExecutorService visibilityExtender =
+      Executors.newSingleThreadScheduledExecutor();
+  private static ScheduledExecutorService segmentFlusher =
+      Executors.newSingleThreadScheduledExecutor();
 
   private static AtomicBoolean terminated;
-  private static volatile boolean started = false;
 
   public static void main(String[] args) {
     String appTasksQueueName = args[0];
@@ -58,33 +110,98 @@ public class Manager {
     String iamArn = args[2];
     String userId = args[3];
 
-    sqs = SqsClient.builder().region(REGION).build();
-    appTasksQueue = new SQSAdapter(sqs, appTasksQueueName, false);
-    workerTasksQueue = new SQSAdapter(sqs, workerTasksQueueName, true);
-    workerResponseQueue = new SQSAdapter(sqs, workerResponseQueueName, true);
-    workerHandler = new WorkerHandler(REGION, workerAmi, iamArn, userId, getWorkerBashScript());
+    run(
+        ASYNC_MODE
+            ? new SQSAsyncQueueProvider(AwsClients.sqsAsync(REGION))
+            : new SQSQueueProvider(AwsClients.sqs(REGION)),
+        new S3Adapter(REGION),
+        new WorkerHandler(REGION, workerAmi, iamArn, userId, getWorkerBashScript()),
+        appTasksQueueName);
+    shutdownInstance();
+  }
 
-    storage = new S3Adapter(REGION);
+  public static void run(
+      QueueProvider queueProvider,
+      BlobStorage blobStorage,
+      ComputeBackend computeBackend,
+      String appTasksQueueName) {
+    queues = new CachingQueueProvider(queueProvider, QUEUE_CACHE_ENTRIES);
+    appTasksQueue = queues.getQueue(appTasksQueueName, false);
+    workerTasksQueue = queues.getQueue(workerTasksQueueName, true);
+    workerTasksQueue.setBatchExecutor(taskHandlers);
+    workerResponseQueue = queues.getQueue(workerResponseQueueName, true);
+    workerHandler = computeBackend;
+    scheduler = new FairScheduler();
+    autoscaler =
+        new WorkerAutoscaler(
+            workerHandler,
+            workerTasksQueue,
+            scheduler::getQueuedTasks,
+            System::currentTimeMillis,
+            0);
+
+    storage = blobStorage;
+    journal = new JobJournal(storage);
+    resultAggregator = new ResultAggregator(storage, Manager::segmentWritten);
+    payloads = new PayloadStore(storage);
     terminated = new AtomicBoolean(false);
     start();
   }
 
   private static void start() {
+    recoverJobs(); // First, an unreadable journal stops the manager before anything runs
+    autoscaler.start();
+    scheduler.start(workerTasksQueue, autoscaler::getLastActiveWorkers);
+    visibilityExtender.scheduleWithFixedDelay(
+        Manager::extendVisibility,
+        VISIBILITY_REFRESH_SECONDS,
+        VISIBILITY_REFRESH_SECONDS,
+        TimeUnit.SECONDS);
+    if (SEGMENT_MAX_AGE_MILLIS > 0) {
+      long interval = Math.max(1, SEGMENT_MAX_AGE_MILLIS / 5);
+      segmentFlusher.scheduleWithFixedDelay(
+          () -> resultAggregator.flushIdle(SEGMENT_MAX_AGE_MILLIS),
+          interval,
+          interval,
+          TimeUnit.MILLISECONDS);
+    }
     appListener.execute(Manager::appTaskListener);
-    IntStream.range(0, WORKER_LISTENERS_COUNT)
-        .forEach(i -> workerListeners.execute(Manager::workerResponseListener));
+    if (ASYNC_MODE) { // The listener threads only handle what the pump received
+      responsePump =
+          new MessagePump(
+              workerResponseQueue,
+              RESPONSE_POLLERS,
+              workerListeners,
+              Manager::parseWorkerMessage,
+              () -> !terminated.get() || !jobs.isEmpty());
+      responsePumpStopped = responsePump.start();
+    } else {
+      IntStream.range(0, WORKER_LISTENERS_COUNT)
+          .forEach(i -> workerListeners.execute(Manager::workerResponseListener));
+    }
 
     awaitTermination();
+    scheduler.stop();
+    visibilityExtender.shutdownNow();
+    segmentFlusher.shutdownNow();
+    autoscaler.stop();
+    jobs.stop();
     workerHandler.terminateWorkers();
-    terminate();
+    deleteQueues();
+    journal.clear();
   }
 
   private static void awaitTermination() {
     try {
       appListener.shutdown();
       appListener.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
+      admission.awaitNoPending(); // Deferred jobs were accepted and still need an ingester
+      ingesters.shutdown();
+      ingesters.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
+      if (responsePumpStopped != null) responsePumpStopped.join();
       workerListeners.shutdown();
       workerListeners.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
+      CompletableFuture.allOf(finishingJobs.values().toArray(new CompletableFuture<?>[0])).join();
 
       taskHandlers.shutdown();
       if (!taskHandlers.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES)) {
@@ -95,10 +212,23 @@ public class Manager {
     }
   }
 
-  private static void terminate() {
+  public static String getStats() {
+    String stats =
+        String.format(
+            "Manager stats:%n\t%s%n\t%s%n\t%s%n\t%s",
+            jobs.getStats(), admission.getStats(), journal.getStats(), queues.getStats());
+    return responsePump == null ? stats : stats + String.format("%n\t%s", responsePump.getStats());
+  }
+
+  private static void deleteQueues() {
+    workerTasksQueue.flush();
+    workerResponseQueue.flush();
     workerTasksQueue.deleteQueue();
     workerResponseQueue.deleteQueue();
     appTasksQueue.deleteQueue();
+  }
+
+  private static void shutdownInstance() {
     Runtime r = Runtime.getRuntime();
     try {
       r.exec("sudo shutdown -h now").waitFor();
@@ -109,7 +239,7 @@ public class Manager {
   }
 
   private static void workerResponseListener() {
-    while (!terminated.get() || (started && !applicationLines.isEmpty())) {
+    while (!terminated.get() || !jobs.isEmpty()) {
       workerResponseQueue.receiveMessageBatch(Manager::parseWorkerMessage);
     }
   }
@@ -125,130 +255,414 @@ public class Manager {
     }
   }
 
+  // Jobs are registered on receipt so that a termination request cannot overtake them, their
+  // input is then read on the ingesters so one large job does not hold up the others
   private static void parseApplicationMessage(Message message) {
+    ProtocolMessage.AppTask task = parseAppTask(message);
+    UUID appId = task.getAppId();
+    if (journal.isOpen(appId)) { // Redelivered, the journal already owns the job
+      deleteAppMessage(message);
+      return;
+    }
+    long start = System.nanoTime();
+    MessageQueue appQueue = queues.getQueue(appId.toString(), false);
+    JobRegistry.Job job = jobs.register(appId, appQueue.getQueueURL());
+    job.addControlPlaneNanos(System.nanoTime() - start);
+    scheduler.register(appId, task.getPriority());
+    switch (admission.offer(appId, message)) {
+      case ADMITTED:
+        startJob(task, message);
+        break;
+      case DEFERRED:
+        start = System.nanoTime();
+        appQueue.sendMessage(MessageProtocol.createManagerDeferredMessage());
+        job.addControlPlaneNanos(System.nanoTime() - start);
+        break;
+      default:
+        break; // Already waiting, the application was told when it was first deferred
+    }
+  }
+
+  // Once the job is journaled the application message is no longer needed
+  private static void startJob(ProtocolMessage.AppTask task, Message message) {
+    JobRegistry.Job job = jobs.get(task.getAppId());
+    long start = System.nanoTime();
+    journal.jobStarted(task, job.getQueueURL());
+    deleteAppMessage(message);
+    job.addControlPlaneNanos(System.nanoTime() - start);
+    ingesters.execute(() -> ingest(task, null));
+  }
+
+  // Restarts the jobs a previous manager left unfinished. Lines whose results are already in a
+  // stored segment are not dispatched again. A journal that stays unreadable stops the manager,
+  // starting without it would lose the jobs and later overwrite their records.
+  private static void recoverJobs() {
+    List<JobJournal.JobEntry> recovered;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        recovered = journal.recover();
+        break;
+      } catch (IOException | RuntimeException e) {
+        if (attempt == MAX_RECOVERY_ATTEMPTS) {
+          throw new IllegalStateException("Unreadable job journal", e);
+        }
+        System.err.printf("Reading the job journal failed (attempt %d): %s%n", attempt, e);
+        try {
+          Thread.sleep(RECOVERY_RETRY_MILLIS);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted reading the job journal", e);
+        }
+      }
+    }
+    jobs.setEpoch(journal.getEpoch());
+    for (JobJournal.JobEntry entry : recovered) {
+      ProtocolMessage.AppTask task = entry.getTask();
+      UUID appId = task.getAppId();
+      jobs.register(appId, entry.getQueueURL());
+      scheduler.register(appId, task.getPriority());
+      admission.restore(appId);
+      deleteSegmentsFrom(appId, entry.getSegments());
+      resultAggregator.resume(appId, entry.getSegments());
+      IngestCheckpoint.delete(storage, appId.toString()); // Progress of the lost process
+      ingesters.execute(() -> ingest(task, readAnsweredLines(appId, entry.getSegments())));
+    }
+    if (journal.isTerminateRequested()
+        && recovered.stream().noneMatch(entry -> entry.getTask().isTerminate())) {
+      terminated.set(true);
+    }
+    if (!recovered.isEmpty()) System.out.printf("Recovered %d job(s)%n", recovered.size());
+  }
+
+  // Segments stored past the journaled ones are not counted as answered and their lines are
+  // dispatched again, so the new run numbers its segments from there and must not leave old ones
+  // behind for the application to render
+  private static void deleteSegmentsFrom(UUID appId, int firstSegment) {
+    String bucketName = appId.toString();
+    List<String> stale = new ArrayList<>();
+    try {
+      storage.streamBucket(
+          bucketName,
+          object -> {
+            if (ResultSegment.isSegmentKey(object.key())
+                && ResultSegment.segmentIndex(object.key()) >= firstSegment) {
+              stale.add(object.key());
+            }
+          });
+      stale.forEach(key -> storage.deleteObject(bucketName, key));
+    } catch (RuntimeException e) {
+      System.err.printf("Failed deleting old result segments of %s: %s%n", appId, e);
+    }
+  }
+
+  // Counts the stored result rows of a job by image URL
+  private static Map<String, Integer> readAnsweredLines(UUID appId, int segments) {
+    Map<String, Integer> answered = new HashMap<>();
+    for (int i = 0; i < segments; i++) {
+      try (InputStream stream =
+          storage.getFileStream(appId.toString(), ResultSegment.segmentKey(i))) {
+        if (stream == null) throw new IOException("Missing result segment " + i);
+        ResultSegment.readRecords(
+            new InputStreamReader(stream, StandardCharsets.UTF_8),
+            (URL, result) -> answered.merge(URL, 1, Integer::sum));
+      } catch (IOException e) {
+        System.err.printf("Recovering %s without result segment %d: %s%n", appId, i, e);
+      }
+    }
+    return answered;
+  }
+
+  private static void deleteAppMessage(Message message) {
     try {
-      if (isOverMemoryThreshold()) return;
-      String[] messageSplits = MessageProtocol.split(message.body());
-      UUID appId = UUID.fromString(messageSplits[1]);
-      String inputFileBucketKey = messageSplits[2];
-      int URLPerWorker = Integer.parseInt(messageSplits[3]);
-      handleApplicationTask(appId, inputFileBucketKey, URLPerWorker);
-      terminated.compareAndSet(false, Boolean.parseBoolean(messageSplits[4]));
       appTasksQueue.deleteMessage(message);
-    } catch (InterruptedException | ExecutionException | IOException e) {
-      e.printStackTrace();
+    } catch (InterruptedException | ExecutionException | RuntimeException e) {
+      System.err.println("Failed deleting application message: " + e.getMessage());
+    }
+  }
+
+  // Deferred application messages stay on the queue, so keep them from being redelivered
+  private static void extendVisibility() {
+    for (Message message : admission.getPendingMessages()) {
+      try {
+        appTasksQueue.changeMessageVisibility(message, VISIBILITY_EXTENSION_SECONDS);
+      } catch (RuntimeException e) {
+        System.err.println("Failed extending application message visibility: " + e.getMessage());
+      }
+    }
+  }
+
+  // Retries a failed read from its checkpoint. A job whose input stays unreadable is finished
+  // with the lines read so far.
+  private static void ingest(ProtocolMessage.AppTask task, Map<String, Integer> answered) {
+    UUID appId = task.getAppId();
+    AtomicReference<IngestCheckpoint> progress = new AtomicReference<>();
+    try {
+      for (int attempt = 1; ; attempt++) {
+        try {
+          queueWorkerTasks(
+              appId, task.getInputKey(), task.getLinesPerWorker(), answered, progress);
+          break;
+        } catch (IOException e) {
+          System.err.printf("Reading input of %s failed (attempt %d): %s%n", appId, attempt, e);
+          if (attempt == MAX_INGEST_ATTEMPTS) {
+            finishIngestion(appId, 0);
+            break;
+          }
+          Thread.sleep(INGEST_RETRY_MILLIS);
+        }
+      }
+      IngestCheckpoint.delete(storage, appId.toString());
+      terminated.compareAndSet(false, task.isTerminate());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
   private static void notifyTermination(Message message) {
     try {
-      String[] messageSplits = MessageProtocol.split(message.body());
-      UUID appId = UUID.fromString(messageSplits[1]);
-      new SQSAdapter(sqs, appId.toString(), false).sendMessage(MessageProtocol.createManagerTerminationMessage());
+      UUID appId = parseAppTask(message).getAppId();
+      queues
+          .getQueue(appId.toString(), false)
+          .sendMessage(MessageProtocol.createManagerTerminationMessage());
+      queues.forget(appId.toString());
       appTasksQueue.deleteMessage(message);
     } catch (InterruptedException | ExecutionException e) {
       e.printStackTrace();
     }
   }
 
+  private static ProtocolMessage.AppTask parseAppTask(Message message) {
+    ProtocolMessage task = MessageProtocol.parse(message.body());
+    if (task.getType() != ProtocolMessage.Type.APP_TASK) {
+      throw new IllegalArgumentException("Unexpected application message " + task.getType());
+    }
+    return (ProtocolMessage.AppTask) task;
+  }
+
   private static void parseWorkerMessage(Message message) {
     try {
-      String[] messageSplits = MessageProtocol.split(message.body());
-      String messageType = messageSplits[0];
-      handleWorkerResponse(messageType, messageSplits);
-      workerResponseQueue.deleteMessage(message);
-    } catch (ExecutionException | InterruptedException e) {
-      e.printStackTrace();
+      handleWorkerResponse(MessageProtocol.parse(message.body()));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Dropping malformed worker message: " + e.getMessage());
     }
+    workerResponseQueue.deleteMessageBuffered(message);
   }
 
-  private static void handleWorkerResponse(String messageType, String[] messageSplits) {
-    try {
-      switch (messageType) {
-        case MessageProtocol.WORKER_TASK_FINISH:
-          UUID appId = UUID.fromString(messageSplits[1]);
-          String imageURL = messageSplits[2];
-          String result = messageSplits[3];
-          while (!terminated.get() && !applicationLines.containsKey(appId)) {
-            synchronized (TASK_START_LOCK) {
-              TASK_START_LOCK.wait();
-            }
-          }
-          storage.uploadString(
-              appId.toString(),
-              UUID.randomUUID().toString(),
-              MessageProtocol.createResultSummary(imageURL, result));
-          applicationLines.get(appId).getValue1().decrement();
-          isAppTaskFinished(appId);
-          break;
-        case MessageProtocol.WORKER_TASK_FAIL:
-          String failMessage = messageSplits[1];
-          System.err.println(failMessage + " error occurred while processing a message.");
+  private static void handleWorkerResponse(ProtocolMessage response) {
+    switch (response.getType()) {
+      case WORKER_RESULTS:
+        ProtocolMessage.WorkerResults workerResults = (ProtocolMessage.WorkerResults) response;
+        if (!jobs.acceptResponse(workerResults.getAppId(), workerResults.getTaskId())) {
+          workerResults.getResults().forEach(payloads::release); // Redelivered task
           break;
+        }
+        autoscaler.recordCompletedTasks(1);
+        scheduler.taskCompleted();
+        for (ImageResult result : workerResults.getResults()) {
+          batchSizer.recordImageLatency(result.getElapsedMillis());
+          handleImageResult(result);
+        }
+        break;
+      case WORKER_FAIL:
+        String failMessage = ((ProtocolMessage.WorkerFail) response).getReason();
+        System.err.println(failMessage + " error occurred while processing a message.");
+        break;
+      default:
+        System.err.println("Unexpected worker message " + response.getType());
+    }
+  }
+
+  private static void handleImageResult(ImageResult imageResult) {
+    String imageURL = imageResult.getURL();
+    Map<UUID, Integer> requesters = inFlightImages.complete(imageURL);
+    if (requesters != null) { // Otherwise a duplicate response for an image already handled
+      String result = resolveResult(imageResult); // Offloaded text is only fetched when needed
+      for (Map.Entry<UUID, Integer> requester : requesters.entrySet()) {
+        fanOutResult(requester.getKey(), requester.getValue(), imageURL, result);
       }
-    } catch (InterruptedException | ExecutionException | IOException e) {
-      e.printStackTrace();
+    }
+    payloads.release(imageResult);
+  }
+
+  private static String resolveResult(ImageResult imageResult) {
+    try {
+      return payloads.resolve(imageResult);
+    } catch (IOException | RuntimeException e) {
+      return MessageProtocol.ERROR_PREFIX + "Result payload unavailable: " + e.getMessage();
+    }
+  }
+
+  // Tells the application how many segments it can render, once they are stored without a gap.
+  // Runs off the journal's writer, which must not wait on the application's queue.
+  private static void segmentWritten(UUID appId, int segmentIndex, long rows) {
+    journal
+        .segmentWritten(appId, segmentIndex, rows)
+        .thenAcceptAsync(stored -> sendProgress(appId, stored), taskHandlers)
+        .exceptionally(
+            error -> {
+              System.err.printf("Failed recording segments of %s: %s%n", appId, error.getMessage());
+              return null;
+            });
+  }
+
+  private static void sendProgress(UUID appId, JobJournal.JobEntry stored) {
+    if (stored == null || !journal.isOpen(appId)) return; // Finished jobs already got the count
+    try {
+      queues
+          .getQueueByURL(stored.getQueueURL())
+          .sendMessage(
+              MessageProtocol.createManagerProgressMessage(stored.getSegments(), stored.getRows()));
+    } catch (RuntimeException e) {
+      System.err.printf("Failed sending progress to %s: %s%n", appId, e.getMessage());
     }
   }
 
-  private static void isAppTaskFinished(UUID appId)
-      throws ExecutionException, InterruptedException, IOException {
-    LongAdder remainingLines = applicationLines.getOrDefault(appId, null).getValue1();
-    if (remainingLines != null && remainingLines.longValue() <= 0) {
-      String queueURL = applicationLines.get(appId).getValue0();
-      applicationLines.remove(appId);
-      new SQSAdapter(sqs, queueURL).sendMessage(MessageProtocol.createManagerResponseMessage());
-      if (!terminated.get() && applicationLines.isEmpty()) {
-        synchronized (TASK_START_LOCK) {
-          TASK_START_LOCK.wait(
-              1000
-                  * 60
-                  * INACTIVE_KEEP_WORKER_MINUTE); // Wait for 5 minutes before terminating workers
-                                                  // if no additional tasks in the timespan
-          if (applicationLines.isEmpty()) {
-            workerHandler.terminateWorkers();
+  private static void fanOutResult(UUID appId, int lines, String imageURL, String result) {
+    jobs.runOrPark(
+        appId,
+        job -> {
+          for (int i = 0; i < lines; i++) {
+            resultAggregator.addResult(appId, imageURL, result); // One report row per line
           }
-        }
-      }
+          completeLines(job, lines);
+          admission.releaseImages(lines);
+        });
+  }
+
+  // The job is answered once its last segments are stored, without holding the calling thread. A
+  // segment that could not be stored fails the job rather than answering it with rows missing.
+  private static void completeLines(JobRegistry.Job job, long lines) {
+    if (!jobs.completeLines(job, lines)) return;
+    UUID appId = job.getAppId();
+    CompletableFuture<Void> finished =
+        resultAggregator
+            .complete(appId)
+            .handle(
+                (segments, error) -> {
+                  finishJob(
+                      job,
+                      segments,
+                      error instanceof CompletionException ? error.getCause() : error);
+                  return null;
+                });
+    finishingJobs.put(appId, finished);
+    finished.whenComplete(
+        (done, error) -> {
+          if (error != null) System.err.printf("Failed finishing %s: %s%n", appId, error);
+          finishingJobs.remove(appId, finished);
+        });
+  }
+
+  private static void finishJob(JobRegistry.Job job, Integer segments, Throwable failure) {
+    long start = System.nanoTime();
+    if (failure != null) {
+      System.err.printf("Failing %s: %s%n", job.getAppId(), failure);
+    }
+    try {
+      queues
+          .getQueueByURL(job.getQueueURL())
+          .sendMessage(
+              failure == null
+                  ? MessageProtocol.createManagerResponseMessage(segments)
+                  : MessageProtocol.createManagerFailedMessage(failure.getMessage()));
+    } catch (RuntimeException e) { // Recovered jobs may already have been answered
+      System.err.printf("Failed notifying %s: %s%n", job.getAppId(), e.getMessage());
+    }
+    queues.forget(job.getAppId().toString());
+    JobJournal.JobEntry entry = journal.jobFinished(job.getAppId());
+    if (entry != null) {
+      storage.deleteObject(job.getAppId().toString(), entry.getTask().getInputKey());
     }
+    job.addControlPlaneNanos(System.nanoTime() - start);
+    jobs.recordFinished(job);
+    Message next = admission.finish(job.getAppId());
+    if (next != null) startJob(parseAppTask(next), next);
   }
 
-  private static void handleApplicationTask(
-      UUID appId, String bucketKey, int linesPerWorker) throws IOException {
+  // Streams the input in constant memory. A failure leaves the progress so far for the retry,
+  // kept in memory since the tasks of its last lines may not be on the queue yet and must not be
+  // recorded in a checkpoint. Lines found in answered already have a stored result and are only
+  // counted.
+  private static void queueWorkerTasks(
+      UUID appId,
+      String bucketKey,
+      int linesPerWorker,
+      Map<String, Integer> answered,
+      AtomicReference<IngestCheckpoint> progress)
+      throws IOException, InterruptedException {
     String bucketName = appId.toString();
-    InputStream inputFileStream = storage.getFileStream(bucketName, bucketKey);
-    int workerCount = queueWorkerTasks(inputFileStream, appId, linesPerWorker);
-    storage.deleteObject(bucketName, bucketKey);
-    workerHandler.startWorkers(workerCount);
-  }
-
-  private static int queueWorkerTasks(InputStream fileStream, UUID appId, int linePerWorker) {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(fileStream))) {
-      String queueURL = new SQSAdapter(sqs, appId.toString(), false).getQueueURL();
-      long lineCount = reader.lines().peek(line -> sendWorkerMessage(appId, line)).count();
-      LongAdder taskAccumulator = new LongAdder();
-      taskAccumulator.add(lineCount);
-      applicationLines.putIfAbsent(appId, new Pair<>(queueURL, taskAccumulator));
-      synchronized (TASK_START_LOCK) {
-        started = true;
-        TASK_START_LOCK.notifyAll();
+    JobRegistry.Job job = jobs.get(appId); // Open until all lines are read
+    IngestCheckpoint checkpoint = progress.get();
+    if (checkpoint == null) checkpoint = IngestCheckpoint.read(storage, bucketName);
+    long lines = checkpoint.getLines();
+    long dispatched = checkpoint.getDispatched();
+    List<String> batch = new ArrayList<>(MAX_IMAGES_PER_TASK);
+    try (ResumableLineReader reader =
+        new ResumableLineReader(storage, bucketName, bucketKey, checkpoint.getOffset())) {
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines++;
+          if (answered != null && takeAnsweredRow(answered, line)) continue;
+          admission.acquireImages(1); // Blocks while too many images are in flight
+          jobs.addLines(job, 1);
+          if (inFlightImages.register(appId, line)) {
+            dispatched++;
+            batch.add(line);
+            if (batch.size() >= batchSizer.getBatchSize()) {
+              sendWorkerMessage(appId, batch);
+              batch.clear();
+            }
+          }
+          if (lines % CHECKPOINT_INTERVAL_LINES == 0) {
+            checkpoint(appId, batch, reader.getOffset(), lines, dispatched);
+            autoscaler.requestWorkers(getWorkerCount(dispatched, linesPerWorker));
+          }
+        }
+      } catch (IOException e) {
+        if (!batch.isEmpty()) sendWorkerMessage(appId, batch);
+        progress.set(new IngestCheckpoint(reader.getOffset(), lines, dispatched));
+        throw e;
       }
-      return (int) Math.ceil((double) taskAccumulator.longValue() / linePerWorker);
-    } catch (IOException e) {
-      e.printStackTrace();
     }
-    return 0;
+    if (!batch.isEmpty()) sendWorkerMessage(appId, batch);
+    int workers = getWorkerCount(dispatched, linesPerWorker);
+    autoscaler.requestWorkers(workers); // The last tasks may wait for workers to leave the window
+    scheduler.awaitDispatched(appId); // The last tasks are on the queue before the input is done
+    finishIngestion(appId, workers);
+  }
+
+  private static void finishIngestion(UUID appId, int workers) {
+    scheduler.finish(appId);
+    completeLines(jobs.get(appId), 1); // All lines may have been answered already
+    autoscaler.requestWorkers(workers);
+  }
+
+  // Takes one of the stored rows for the line, returns false if none is left
+  private static boolean takeAnsweredRow(Map<String, Integer> answered, String line) {
+    Integer rows = answered.get(line);
+    if (rows == null) return false;
+    if (rows == 1) answered.remove(line);
+    else answered.put(line, rows - 1);
+    return true;
+  }
+
+  private static void checkpoint(
+      UUID appId, List<String> batch, long offset, long lines, long dispatched)
+      throws IOException, InterruptedException {
+    if (!batch.isEmpty()) sendWorkerMessage(appId, batch);
+    batch.clear();
+    scheduler.awaitDispatched(appId); // Only record lines whose tasks are on the queue
+    new IngestCheckpoint(offset, lines, dispatched).write(storage, appId.toString());
   }
 
-  private static void sendWorkerMessage(UUID appId, String url) {
-    taskHandlers.execute(
-        () -> workerTasksQueue.sendMessage(MessageProtocol.createWorkerTaskMessage(appId, url)));
+  private static int getWorkerCount(long dispatched, int linesPerWorker) {
+    return (int) Math.ceil((double) dispatched / linesPerWorker);
   }
 
-  private static synchronized boolean isOverMemoryThreshold() {
-    Runtime runtime = Runtime.getRuntime();
-    long allocatedMemory = runtime.totalMemory() - runtime.freeMemory();
-    return ((double) allocatedMemory / runtime.maxMemory()) >= MEMORY_PERCENTAGE_THRESHOLD;
+  private static void sendWorkerMessage(UUID appId, List<String> urls)
+      throws InterruptedException {
+    scheduler.submit(appId, jobs.get(appId).nextTaskId(), urls);
   }
 
   private static String getWorkerBashScript() {
@@ -0,0 +1,150 @@
+package manager;
+
+import adapters.BlobStorage;
+import protocol.ResultSegment;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class ResultAggregator {
+
+  private static final int DEFAULT_SEGMENT_CHARS = 1024 * 1024;
+  private static final int MAX_UPLOAD_ATTEMPTS = 4;
+  private static final long UPLOAD_RETRY_MILLIS = 500;
+
+  public interface SegmentListener {
+    void onSegmentWritten(UUID appId, int segmentIndex, long rows);
+  }
+
+  private static class JobResults {
+    private StringBuilder buffer = new StringBuilder();
+    private long bufferRows = 0;
+    private long firstBufferedNanos;
+    private int nextSegment = 0;
+    private CompletableFuture<Void> uploads = CompletableFuture.completedFuture(null);
+  }
+
+  private final BlobStorage storage;
+  private final int segmentChars;
+  private final SegmentListener listener;
+  private final ConcurrentHashMap<UUID, JobResults> jobs = new ConcurrentHashMap<>();
+
+  public ResultAggregator(BlobStorage storage) {
+    this(storage, DEFAULT_SEGMENT_CHARS, (appId, segmentIndex, rows) -> {});
+  }
+
+  public ResultAggregator(BlobStorage storage, SegmentListener listener) {
+    this(storage, DEFAULT_SEGMENT_CHARS, listener);
+  }
+
+  public ResultAggregator(BlobStorage storage, int segmentChars, SegmentListener listener) {
+    this.storage = storage;
+    this.segmentChars = segmentChars;
+    this.listener = listener;
+  }
+
+  // Continues a recovered job after the segments it already stored
+  public void resume(UUID appId, int nextSegment) {
+    jobs.computeIfAbsent(appId, id -> new JobResults()).nextSegment = nextSegment;
+  }
+
+  // Returns once the result is buffered, a segment it completes is uploaded in the background
+  public void addResult(UUID appId, String URL, String result) {
+    JobResults job = jobs.computeIfAbsent(appId, id -> new JobResults());
+    synchronized (job) {
+      if (job.bufferRows == 0) job.firstBufferedNanos = System.nanoTime();
+      ResultSegment.appendRecord(job.buffer, URL, result);
+      job.bufferRows++;
+      if (job.buffer.length() >= segmentChars) cutSegment(appId, job);
+    }
+  }
+
+  // Stores results buffered for longer than maxAgeMillis as a segment of their own, so that
+  // applications can render a job's results while it runs
+  public void flushIdle(long maxAgeMillis) {
+    long now = System.nanoTime();
+    for (Map.Entry<UUID, JobResults> entry : jobs.entrySet()) {
+      JobResults job = entry.getValue();
+      synchronized (job) {
+        if (job.bufferRows > 0
+            && now - job.firstBufferedNanos >= TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+          cutSegment(entry.getKey(), job);
+        }
+      }
+    }
+  }
+
+  // Uploads what is left and completes with the job's segment count once every segment is stored,
+  // or fails once any of them could not be stored
+  public CompletableFuture<Integer> complete(UUID appId) {
+    JobResults job = jobs.remove(appId);
+    if (job == null) return CompletableFuture.completedFuture(0);
+    synchronized (job) {
+      if (job.bufferRows > 0) cutSegment(appId, job);
+      int segments = job.nextSegment;
+      return job.uploads.thenApply(stored -> segments);
+    }
+  }
+
+  // Called holding the job, so complete() sees every upload that was started
+  private void cutSegment(UUID appId, JobResults job) {
+    CompletableFuture<Void> upload =
+        upload(appId, job.nextSegment++, job.buffer.toString(), job.bufferRows);
+    job.uploads = CompletableFuture.allOf(job.uploads, upload);
+    job.buffer = new StringBuilder();
+    job.bufferRows = 0;
+  }
+
+  // Segments can be stored out of order, the listener only hears of the ones that were
+  private CompletableFuture<Void> upload(UUID appId, int segmentIndex, String segment, long rows) {
+    return upload(appId, segmentIndex, segment, 1)
+        .thenRun(
+            () -> {
+              try {
+                listener.onSegmentWritten(appId, segmentIndex, rows);
+              } catch (RuntimeException e) { // The segment itself is stored
+                System.err.printf(
+                    "Failed recording segment %d of %s: %s%n", segmentIndex, appId, e);
+              }
+            });
+  }
+
+  // Retries with a growing delay, without holding a thread while waiting
+  private CompletableFuture<Void> upload(
+      UUID appId, int segmentIndex, String segment, int attempt) {
+    CompletableFuture<Void> stored;
+    try {
+      stored =
+          storage.uploadStringAsync(
+              appId.toString(), ResultSegment.segmentKey(segmentIndex), segment);
+    } catch (RuntimeException e) {
+      stored = CompletableFuture.failedFuture(e);
+    }
+    return stored
+        .handle((done, error) -> error)
+        .thenCompose(
+            error -> {
+              if (error == null) return CompletableFuture.completedFuture(null);
+              if (attempt >= MAX_UPLOAD_ATTEMPTS) {
+                return CompletableFuture.failedFuture(
+                    new IllegalStateException(
+                        String.format(
+                            "Failed storing segment %d of %s after %d attempts",
+                            segmentIndex, appId, attempt),
+                        error));
+              }
+              System.err.printf(
+                  "Retrying segment %d of %s (attempt %d): %s%n",
+                  segmentIndex, appId, attempt, error);
+              Executor delayed =
+                  CompletableFuture.delayedExecutor(
+                      UPLOAD_RETRY_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS);
+              return CompletableFuture.supplyAsync(() -> null, delayed)
+                  .thenCompose(ignored -> upload(appId, segmentIndex, segment, attempt + 1));
+            });
+  }
+}
@@ -0,0 +1,108 @@
+package manager;
+
+import adapters.BlobStorage;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Streams the lines of a stored object while tracking the byte offset of every line boundary,
+// a dropped connection or failed open is retried with a ranged read from the last complete line.
+// Only the storage reporting nothing left past the offset ends the input.
+public class ResumableLineReader implements Closeable {
+
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final int MAX_REOPEN_ATTEMPTS = 5;
+  private static final long REOPEN_BACKOFF_MILLIS = 500;
+
+  private final BlobStorage storage;
+  private final String bucketName;
+  private final String key;
+  private InputStream stream;
+  private long offset;
+  private byte[] line = new byte[256];
+
+  private boolean ended = false;
+
+  public ResumableLineReader(BlobStorage storage, String bucketName, String key, long offset) {
+    this.storage = storage;
+    this.bucketName = bucketName;
+    this.key = key;
+    this.offset = offset;
+  }
+
+  // Offset just past the last line returned
+  public long getOffset() {
+    return offset;
+  }
+
+  public String readLine() throws IOException {
+    for (int attempt = 0; ; attempt++) {
+      try {
+        if (stream == null && !open()) return null;
+        return readLineOnce();
+      } catch (FileNotFoundException e) {
+        throw e; // Deleted, reading again will not bring it back
+      } catch (IOException e) {
+        if (attempt >= MAX_REOPEN_ATTEMPTS) throw e;
+        closeQuietly();
+        stream = null;
+        sleepBeforeRetry(attempt);
+      }
+    }
+  }
+
+  private String readLineOnce() throws IOException {
+    int length = 0;
+    int bytesRead = 0;
+    int b;
+    while ((b = stream.read()) != -1) {
+      bytesRead++;
+      if (b == '\n') break;
+      if (length == line.length) line = Arrays.copyOf(line, line.length * 2);
+      line[length++] = (byte) b;
+    }
+    if (bytesRead == 0) return null;
+    offset += bytesRead;
+    if (length > 0 && line[length - 1] == '\r') length--;
+    return new String(line, 0, length, StandardCharsets.UTF_8);
+  }
+
+  // Returns false once the offset is at the end of the input
+  private boolean open() throws IOException {
+    if (ended) return false;
+    InputStream raw = storage.getFileStream(bucketName, key, offset);
+    if (raw == null) {
+      ended = true;
+      return false;
+    }
+    stream = new BufferedInputStream(raw, READ_BUFFER_BYTES);
+    return true;
+  }
+
+  private void sleepBeforeRetry(int attempt) throws IOException {
+    try {
+      Thread.sleep(REOPEN_BACKOFF_MILLIS << attempt);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reopening input", e);
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      if (stream != null) stream.close();
+    } catch (IOException ignored) {
+      // The stream is already broken
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (stream != null) stream.close();
+  }
+}
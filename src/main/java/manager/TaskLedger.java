@@ -0,0 +1,45 @@
+package manager;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// One bit per task id of a job, set when the task's response is accounted for. Bits live in
+// fixed segments allocated on first use, so a job costs a few bytes per task at any size and a
+// duplicate response is rejected with a single atomic read-modify-write.
+public class TaskLedger {
+
+  private static final int SEGMENT_BITS_LOG2 = 16;
+  private static final int SEGMENT_WORDS = (1 << SEGMENT_BITS_LOG2) / Long.SIZE;
+  private static final long OFFSET_MASK = (1L << SEGMENT_BITS_LOG2) - 1;
+
+  private final ConcurrentHashMap<Long, AtomicLongArray> segments = new ConcurrentHashMap<>();
+  private final AtomicLong marked = new AtomicLong();
+
+  // Returns true only for the first call with the task id
+  public boolean mark(long taskId) {
+    if (taskId < 0) throw new IllegalArgumentException("Negative task id " + taskId);
+    long segmentIndex = taskId >>> SEGMENT_BITS_LOG2;
+    AtomicLongArray segment = segments.get(segmentIndex);
+    if (segment == null) {
+      segment = segments.computeIfAbsent(segmentIndex, i -> new AtomicLongArray(SEGMENT_WORDS));
+    }
+    int offset = (int) (taskId & OFFSET_MASK);
+    long bit = 1L << offset; // Shifts only use the low 6 bits, the bit within the word
+    long previous = segment.getAndAccumulate(offset >>> 6, bit, (word, mask) -> word | mask);
+    if ((previous & bit) != 0) return false;
+    marked.incrementAndGet();
+    return true;
+  }
+
+  public boolean isMarked(long taskId) {
+    AtomicLongArray segment = segments.get(taskId >>> SEGMENT_BITS_LOG2);
+    if (segment == null) return false;
+    int offset = (int) (taskId & OFFSET_MASK);
+    return (segment.get(offset >>> 6) & (1L << offset)) != 0;
+  }
+
+  public long getMarkedCount() {
+    return marked.get();
+  }
+}
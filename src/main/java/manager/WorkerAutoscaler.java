@@ -0,0 +1,198 @@
+package manager;
+
+import adapters.MessageQueue;
+import protocol.MessageProtocol;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+public class WorkerAutoscaler {
+
+  private static final long TICK_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long SCALE_OUT_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(60);
+  private static final long SCALE_IN_COOLDOWN_MILLIS = TimeUnit.MINUTES.toMillis(3);
+  private static final long IDLE_SCALE_IN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long WORKER_BOOT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+  private static final long TARGET_DRAIN_SECONDS = 120;
+  private static final double INITIAL_TASKS_PER_WORKER_SECOND = 0.1;
+  private static final double SCALE_IN_THRESHOLD = 0.7; // Scale in only well below current size
+  private static final int SCALE_IN_STABLE_TICKS = 3;
+  private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+  private final ComputeBackend backend;
+  private final MessageQueue workerTasksQueue;
+  private final IntSupplier heldBackTasks;
+  private final LongSupplier clock;
+  private final int minWorkers;
+  private final int maxWorkers;
+
+  private final LongAdder completedTasks = new LongAdder();
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private double tasksPerWorkerSecond = INITIAL_TASKS_PER_WORKER_SECOND;
+  private boolean throughputMeasured = false;
+  private long lastTickMillis;
+  private long lastCompletedTasks = 0;
+  private long lastScaleOutMillis = Long.MIN_VALUE / 2;
+  private long lastScaleInMillis = Long.MIN_VALUE / 2;
+  private long idleSinceMillis = -1;
+  private int lowDemandTicks = 0;
+  private int stopsOutstanding = 0;
+  private volatile int lastActiveWorkers = 0; // Read by the scheduler without the monitor
+  private int lastTarget = 0;
+
+  // heldBackTasks counts tasks accepted but not yet put on the worker queue
+  public WorkerAutoscaler(
+      ComputeBackend backend,
+      MessageQueue workerTasksQueue,
+      IntSupplier heldBackTasks,
+      LongSupplier clock,
+      int minWorkers) {
+    this.backend = backend;
+    this.workerTasksQueue = workerTasksQueue;
+    this.heldBackTasks = heldBackTasks;
+    this.clock = clock;
+    this.minWorkers = minWorkers;
+    this.maxWorkers = backend.getMaxWorkers();
+    lastTickMillis = clock.getAsLong();
+  }
+
+  public void start() {
+    scheduler.scheduleWithFixedDelay(
+        () -> {
+          try {
+            tick();
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+        },
+        TICK_MILLIS,
+        TICK_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    scheduler.shutdownNow();
+  }
+
+  public void recordCompletedTasks(int tasks) {
+    completedTasks.add(tasks);
+  }
+
+  // Immediate scale out for a newly accepted job, the control loop takes over from here
+  public synchronized void requestWorkers(int workerCount) {
+    int expected = getExpectedWorkers(backend.getActiveWorkerCount());
+    int target = Math.min(workerCount, maxWorkers);
+    if (target > expected) {
+      backend.startWorkers(target);
+      lastScaleOutMillis = clock.getAsLong();
+    }
+  }
+
+  // The inputs are read before taking the monitor, heldBackTasks takes the scheduler lock and the
+  // scheduler reads the active worker count while holding it
+  public void tick() {
+    int backlog = workerTasksQueue.getApproximateDepth() + heldBackTasks.getAsInt();
+    int inFlight = workerTasksQueue.getApproximateInFlight();
+    int active = backend.getActiveWorkerCount();
+    tick(clock.getAsLong(), backlog, inFlight, active);
+  }
+
+  private synchronized void tick(long now, int backlog, int inFlight, int active) {
+    int expected = getExpectedWorkers(active);
+    updateThroughput(now, backlog, active);
+
+    int demand = backlog + inFlight;
+    if (demand > 0) idleSinceMillis = -1;
+    else if (idleSinceMillis < 0) idleSinceMillis = now;
+
+    int target = computeTarget(now, demand, expected);
+    lastTarget = target;
+    if (target > expected) {
+      lowDemandTicks = 0;
+      if (now - lastScaleOutMillis >= SCALE_OUT_COOLDOWN_MILLIS) {
+        backend.startWorkers(target + stopsOutstanding);
+        lastScaleOutMillis = now;
+      }
+    } else if (target < expected && (target == 0 || target <= expected * SCALE_IN_THRESHOLD)) {
+      lowDemandTicks++;
+      if (lowDemandTicks >= SCALE_IN_STABLE_TICKS
+          && now - lastScaleInMillis >= SCALE_IN_COOLDOWN_MILLIS
+          && now - lastScaleOutMillis >= SCALE_IN_COOLDOWN_MILLIS) {
+        int step = target == 0 ? expected : Math.max(1, (expected - target) / 2);
+        drainWorkers(step);
+        lastScaleInMillis = now;
+        lowDemandTicks = 0;
+      }
+    } else {
+      lowDemandTicks = 0;
+    }
+  }
+
+  private int computeTarget(long now, int demand, int expected) {
+    int target;
+    if (demand == 0) {
+      target = now - idleSinceMillis >= IDLE_SCALE_IN_MILLIS ? 0 : expected;
+    } else {
+      target = (int) Math.ceil(demand / (tasksPerWorkerSecond * TARGET_DRAIN_SECONDS));
+    }
+    return Math.max(minWorkers, Math.min(maxWorkers, target));
+  }
+
+  private void updateThroughput(long now, int backlog, int active) {
+    long completed = completedTasks.sum();
+    long elapsedMillis = now - lastTickMillis;
+    boolean booting = now - lastScaleOutMillis < WORKER_BOOT_MILLIS;
+    if (backlog > 0 && !booting && active > 0 && lastActiveWorkers > 0 && elapsedMillis > 0) {
+      // Only a saturated, fully booted fleet tells us what a worker can do
+      int workers = Math.min(active, lastActiveWorkers);
+      double measured = (completed - lastCompletedTasks) * 1000.0 / elapsedMillis / workers;
+      if (measured > 0) {
+        tasksPerWorkerSecond =
+            throughputMeasured
+                ? tasksPerWorkerSecond + THROUGHPUT_SMOOTHING * (measured - tasksPerWorkerSecond)
+                : measured;
+        throughputMeasured = true;
+      }
+    }
+    if (active < lastActiveWorkers) {
+      stopsOutstanding = Math.max(0, stopsOutstanding - (lastActiveWorkers - active));
+    }
+    lastCompletedTasks = completed;
+    lastTickMillis = now;
+    lastActiveWorkers = active;
+  }
+
+  private int getExpectedWorkers(int active) {
+    return Math.max(0, active - stopsOutstanding);
+  }
+
+  // Workers finish their current tasks before leaving, so nothing is redelivered
+  private void drainWorkers(int count) {
+    for (int i = 0; i < count; i++) {
+      workerTasksQueue.sendMessage(MessageProtocol.createWorkerStopMessage());
+    }
+    stopsOutstanding += count;
+  }
+
+  public synchronized double getTasksPerWorkerSecond() {
+    return tasksPerWorkerSecond;
+  }
+
+  public int getLastActiveWorkers() {
+    return lastActiveWorkers;
+  }
+
+  public synchronized int getLastTarget() {
+    return lastTarget;
+  }
+
+  public synchronized int getStopsOutstanding() {
+    return stopsOutstanding;
+  }
+}
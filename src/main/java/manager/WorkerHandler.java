@@ -1,5 +1,6 @@
 package manager;
 
+import adapters.AwsClients;
 import protocol.MessageProtocol;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchClient;
@@ -10,10 +11,9 @@ import software.amazon.awssdk.services.ec2.model.*;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-public class WorkerHandler {
+public class WorkerHandler implements ComputeBackend {
 
     private final Ec2Client ec2;
     private static CloudWatchClient cw;
@@ -26,12 +26,10 @@ public class WorkerHandler {
     private final String workerBashScript;
     private final Region region;
 
-    private final AtomicInteger expectedWorkerCount;
 
     public WorkerHandler(Region region, String workerAMI, String iamArn, String userId, String workerBashScript) {
-        ec2 = Ec2Client.builder().region(region).build();
-        cw = CloudWatchClient.builder().region(region).build();
-        expectedWorkerCount = new AtomicInteger(0);
+        ec2 = AwsClients.ec2(region);
+        cw = AwsClients.cloudWatch(region);
         this.workerBashScript = workerBashScript;
         this.workerAMI = workerAMI;
         this.iamArn = iamArn;
@@ -39,14 +37,21 @@ public class WorkerHandler {
         this.region = region;
     }
 
+    @Override
+    public int getActiveWorkerCount() {
+        return getActiveWorkerInstanceIds().size();
+    }
+
+    @Override
+    public int getMaxWorkers() {
+        return MAX_AWS_WORKERS;
+    }
+
+    @Override
     public synchronized void startWorkers(int workerCount) {
         List<String> activeWorkerIds = getActiveWorkerInstanceIds();
-        int workersToCreate = workerCount - activeWorkerIds.size();
-        if (activeWorkerIds.size() == MAX_AWS_WORKERS || workersToCreate <= 0) return;
-
-        if (expectedWorkerCount.get() > activeWorkerIds.size()) {
-            workersToCreate += expectedWorkerCount.get() - activeWorkerIds.size();
-        }
+        int workersToCreate = Math.min(workerCount, MAX_AWS_WORKERS) - activeWorkerIds.size();
+        if (workersToCreate <= 0) return;
 
         initWorkers(workersToCreate);
     }
@@ -63,6 +68,7 @@ public class WorkerHandler {
                             .imageId(workerAMI)
                             .iamInstanceProfile(profile)
                             .instanceType(InstanceType.T2_MICRO)
+                            .instanceInitiatedShutdownBehavior(ShutdownBehavior.TERMINATE)
                             .userData(workerBashScript)
                             .build();
 
@@ -72,7 +78,6 @@ public class WorkerHandler {
                     workers.stream().map(Instance::instanceId).collect(Collectors.toList());
             addWorkerTags(instanceIds);
             addWorkerAlarms(instanceIds);
-            expectedWorkerCount.set(expectedWorkerCount.get() + workersToCreate);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -116,25 +121,34 @@ public class WorkerHandler {
         cw.putMetricAlarm(metricAlarmRequest);
     }
 
+    @Override
     public synchronized void terminateWorkers() {
+        List<String> activeWorkerIds = getActiveWorkerInstanceIds();
+        if (activeWorkerIds.isEmpty()) return;
         TerminateInstancesRequest terminateInstancesRequest =
-                TerminateInstancesRequest.builder().instanceIds(getActiveWorkerInstanceIds()).build();
+                TerminateInstancesRequest.builder().instanceIds(activeWorkerIds).build();
         ec2.terminateInstances(terminateInstancesRequest);
-        expectedWorkerCount.set(0);
     }
 
     private synchronized List<String> getActiveWorkerInstanceIds() {
         List<String> instanceIds = new ArrayList<>();
 
-        DescribeInstancesRequest request = DescribeInstancesRequest.builder().build();
-        DescribeInstancesResponse response = ec2.describeInstances(request);
-        for (Reservation reservation : response.reservations()) {
-            for (Instance instance : reservation.instances()) {
-                if (instance.state().name().equals(InstanceStateName.RUNNING)
-                        || instance.state().name().equals(InstanceStateName.PENDING))
-                    for (Tag tag : instance.tags()) {
-                        if (tag.value().equals("worker")) instanceIds.add(instance.instanceId());
-                    }
+        DescribeInstancesRequest request =
+                DescribeInstancesRequest.builder()
+                        .filters(
+                                Filter.builder().name("tag:Name").values("worker").build(),
+                                Filter.builder()
+                                        .name("instance-state-name")
+                                        .values(
+                                                InstanceStateName.RUNNING.toString(),
+                                                InstanceStateName.PENDING.toString())
+                                        .build())
+                        .build();
+        for (DescribeInstancesResponse response : ec2.describeInstancesPaginator(request)) {
+            for (Reservation reservation : response.reservations()) {
+                for (Instance instance : reservation.instances()) {
+                    instanceIds.add(instance.instanceId());
+                }
             }
         }
         return instanceIds;
@@ -0,0 +1,41 @@
+package protocol;
+
+public class ImageResult {
+
+  private final String URL;
+  private final String result;
+  private final String payloadKey;
+  private final long elapsedMillis;
+
+  public ImageResult(String URL, String result, long elapsedMillis) {
+    this(URL, result, null, elapsedMillis);
+  }
+
+  // Either the result text or the key of the blob holding it is set
+  public ImageResult(String URL, String result, String payloadKey, long elapsedMillis) {
+    this.URL = URL;
+    this.result = result;
+    this.payloadKey = payloadKey;
+    this.elapsedMillis = elapsedMillis;
+  }
+
+  public String getURL() {
+    return URL;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  public String getPayloadKey() {
+    return payloadKey;
+  }
+
+  public boolean isOffloaded() {
+    return payloadKey != null;
+  }
+
+  public long getElapsedMillis() {
+    return elapsedMillis;
+  }
+}
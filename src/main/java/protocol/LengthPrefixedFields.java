@@ -0,0 +1,36 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class LengthPrefixedFields {
+
+  public static void appendField(StringBuilder out, String field) {
+    out.append(field.length()).append(':').append(field);
+  }
+
+  // Returns null at a clean end of input
+  public static String readField(Reader reader) throws IOException {
+    int length = 0;
+    int c = reader.read();
+    if (c == -1) return null;
+    for (; c != ':'; c = reader.read()) {
+      if (c < '0' || c > '9') throw new IOException("Malformed field length");
+      length = length * 10 + (c - '0');
+    }
+    char[] field = new char[length];
+    int offset = 0;
+    while (offset < length) {
+      int read = reader.read(field, offset, length - offset);
+      if (read == -1) throw new IOException("Truncated field");
+      offset += read;
+    }
+    return new String(field);
+  }
+
+  public static String readRequiredField(Reader reader) throws IOException {
+    String field = readField(reader);
+    if (field == null) throw new IOException("Truncated record");
+    return field;
+  }
+}
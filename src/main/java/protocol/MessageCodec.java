@@ -0,0 +1,307 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Frame layout: version and type as integers, then the fields of the type. Integers are decimal
+// digits closed by ';', strings are their length, ':' and the raw characters ('-' for null), and
+// UUIDs are their fixed 36 character form. Queue bodies have to be text, so the frame is text too
+// rather than Base64 encoded bytes, which would add a third to every OCR result on the wire.
+// Frames above a size threshold are deflated and sent as COMPRESSED_MARKER + Base64, where the
+// compression more than pays for the encoding overhead.
+public class MessageCodec {
+
+  // 2 added payload keys, 3 added job priorities, 4 added task ids, 5 added progress messages,
+  // 6 added job failures, 7 added the segment count of finished jobs
+  public static final int VERSION = 7;
+  public static final int COMPRESSION_THRESHOLD_CHARS = 8 * 1024;
+
+  private static final char COMPRESSED_MARKER = 'z';
+  private static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+
+  private static final int INITIAL_BUFFER_CHARS = 4 * 1024;
+  private static final int MAX_RETAINED_BUFFER_CHARS = 256 * 1024;
+  private static final int UUID_CHARS = 36;
+
+  private static final ThreadLocal<Encoder> ENCODERS = ThreadLocal.withInitial(Encoder::new);
+  private static final ThreadLocal<Compressor> COMPRESSORS =
+      ThreadLocal.withInitial(Compressor::new);
+
+  public static String encode(ProtocolMessage message) {
+    Encoder encoder = ENCODERS.get();
+    encoder.reset();
+    encoder.writeInt(VERSION);
+    encoder.writeInt(message.getType().getCode());
+    switch (message.getType()) {
+      case APP_TASK:
+        ProtocolMessage.AppTask appTask = (ProtocolMessage.AppTask) message;
+        encoder.writeUUID(appTask.getAppId());
+        encoder.writeString(appTask.getInputKey());
+        encoder.writeInt(appTask.getLinesPerWorker());
+        encoder.writeInt(appTask.isTerminate() ? 1 : 0);
+        encoder.writeInt(appTask.getPriority().ordinal());
+        break;
+      case WORKER_TASK:
+        ProtocolMessage.WorkerTask workerTask = (ProtocolMessage.WorkerTask) message;
+        encoder.writeUUID(workerTask.getAppId());
+        encoder.writeInt(workerTask.getTaskId());
+        encoder.writeInt(workerTask.getImageURLs().size());
+        for (String imageURL : workerTask.getImageURLs()) {
+          encoder.writeString(imageURL);
+        }
+        break;
+      case WORKER_RESULTS:
+        ProtocolMessage.WorkerResults workerResults = (ProtocolMessage.WorkerResults) message;
+        encoder.writeUUID(workerResults.getAppId());
+        encoder.writeInt(workerResults.getTaskId());
+        encoder.writeInt(workerResults.getResults().size());
+        for (ImageResult result : workerResults.getResults()) {
+          encoder.writeString(result.getURL());
+          encoder.writeInt(Math.max(0, result.getElapsedMillis()));
+          encoder.writeString(result.getResult());
+          encoder.writeString(result.getPayloadKey());
+        }
+        break;
+      case WORKER_FAIL:
+        encoder.writeString(((ProtocolMessage.WorkerFail) message).getReason());
+        break;
+      case MANAGER_PROGRESS:
+        ProtocolMessage.ManagerProgress progress = (ProtocolMessage.ManagerProgress) message;
+        encoder.writeInt(progress.getSegments());
+        encoder.writeInt(progress.getRows());
+        break;
+      case MANAGER_FAILED:
+        encoder.writeString(((ProtocolMessage.ManagerFailed) message).getReason());
+        break;
+      case MANAGER_DONE:
+        encoder.writeInt(((ProtocolMessage.ManagerDone) message).getSegments());
+        break;
+      default:
+        break; // Signals carry no fields
+    }
+    String frame = encoder.toString();
+    if (frame.length() < COMPRESSION_THRESHOLD_CHARS) return frame;
+    String compressed = COMPRESSORS.get().compress(frame);
+    return compressed.length() < frame.length() ? compressed : frame;
+  }
+
+  public static ProtocolMessage decode(String frame) {
+    if (!frame.isEmpty() && frame.charAt(0) == COMPRESSED_MARKER) {
+      frame = COMPRESSORS.get().decompress(frame);
+    }
+    Decoder decoder = new Decoder(frame);
+    long version = decoder.readInt();
+    if (version < 1 || version > VERSION) {
+      throw new IllegalArgumentException("Unsupported protocol version " + version);
+    }
+    ProtocolMessage.Type type = ProtocolMessage.Type.fromCode((int) decoder.readInt());
+    switch (type) {
+      case APP_TASK:
+        UUID appId = decoder.readUUID();
+        String inputKey = decoder.readString();
+        int linesPerWorker = (int) decoder.readInt();
+        boolean terminate = decoder.readInt() != 0;
+        ProtocolMessage.Priority priority =
+            version >= 3
+                ? ProtocolMessage.Priority.fromCode((int) decoder.readInt())
+                : ProtocolMessage.Priority.NORMAL;
+        return new ProtocolMessage.AppTask(
+            appId, inputKey, linesPerWorker, terminate, priority);
+      case WORKER_TASK:
+        UUID taskAppId = decoder.readUUID();
+        long taskId = version >= 4 ? decoder.readInt() : ProtocolMessage.UNTRACKED_TASK;
+        int urlCount = decoder.readCount();
+        List<String> imageURLs = new ArrayList<>(urlCount);
+        for (int i = 0; i < urlCount; i++) {
+          imageURLs.add(decoder.readString());
+        }
+        return new ProtocolMessage.WorkerTask(taskAppId, taskId, imageURLs);
+      case WORKER_RESULTS:
+        UUID resultsAppId = decoder.readUUID();
+        long resultsTaskId = version >= 4 ? decoder.readInt() : ProtocolMessage.UNTRACKED_TASK;
+        int resultCount = decoder.readCount();
+        List<ImageResult> results = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+          String URL = decoder.readString();
+          long elapsedMillis = decoder.readInt();
+          String result = decoder.readString();
+          String payloadKey = version >= 2 ? decoder.readString() : null;
+          results.add(new ImageResult(URL, result, payloadKey, elapsedMillis));
+        }
+        return new ProtocolMessage.WorkerResults(resultsAppId, resultsTaskId, results);
+      case WORKER_FAIL:
+        return new ProtocolMessage.WorkerFail(decoder.readString());
+      case MANAGER_PROGRESS:
+        int segments = (int) decoder.readInt();
+        return new ProtocolMessage.ManagerProgress(segments, decoder.readInt());
+      case MANAGER_FAILED:
+        return new ProtocolMessage.ManagerFailed(decoder.readString());
+      case MANAGER_DONE:
+        return new ProtocolMessage.ManagerDone(
+            version >= 7
+                ? (int) decoder.readInt()
+                : ProtocolMessage.ManagerDone.UNKNOWN_SEGMENTS);
+      case MANAGER_TERMINATED:
+        return ProtocolMessage.Signal.MANAGER_TERMINATED;
+      case MANAGER_DEFERRED:
+        return ProtocolMessage.Signal.MANAGER_DEFERRED;
+      case WORKER_STOP:
+        return ProtocolMessage.Signal.WORKER_STOP;
+      default:
+        throw new IllegalArgumentException("Unhandled message type " + type);
+    }
+  }
+
+  private static class Encoder {
+    private StringBuilder buffer = new StringBuilder(INITIAL_BUFFER_CHARS);
+
+    private void reset() {
+      if (buffer.capacity() > MAX_RETAINED_BUFFER_CHARS) {
+        buffer = new StringBuilder(INITIAL_BUFFER_CHARS); // Do not pin one huge frame per thread
+      }
+      buffer.setLength(0);
+    }
+
+    private void writeInt(long value) {
+      buffer.append(value).append(';');
+    }
+
+    private void writeUUID(UUID id) {
+      buffer.append(id);
+    }
+
+    private void writeString(String value) {
+      if (value == null) {
+        buffer.append('-');
+        return;
+      }
+      buffer.append(value.length()).append(':').append(value);
+    }
+
+    @Override
+    public String toString() {
+      return buffer.toString();
+    }
+  }
+
+  private static class Compressor {
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private byte[] buffer = new byte[INITIAL_BUFFER_CHARS];
+
+    private String compress(String frame) {
+      deflater.reset();
+      deflater.setInput(frame.getBytes(StandardCharsets.UTF_8));
+      deflater.finish();
+      int length = 0;
+      while (!deflater.finished()) {
+        if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(buffer, 0, length));
+      shrink();
+      return COMPRESSED_MARKER
+          + new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    private String decompress(String frame) {
+      byte[] text = frame.getBytes(StandardCharsets.ISO_8859_1);
+      ByteBuffer deflated = Base64.getDecoder().decode(ByteBuffer.wrap(text, 1, text.length - 1));
+      inflater.reset();
+      inflater.setInput(deflated.array(), 0, deflated.limit());
+      int length = 0;
+      try {
+        while (!inflater.finished()) {
+          if (length == buffer.length) {
+            if (buffer.length >= MAX_INFLATED_BYTES) {
+              throw new IllegalArgumentException("Compressed frame too large");
+            }
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+          int inflated = inflater.inflate(buffer, length, buffer.length - length);
+          if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new IllegalArgumentException("Truncated compressed frame");
+          }
+          length += inflated;
+        }
+      } catch (DataFormatException e) {
+        throw new IllegalArgumentException("Corrupt compressed frame", e);
+      }
+      String decompressed = new String(buffer, 0, length, StandardCharsets.UTF_8);
+      shrink();
+      return decompressed;
+    }
+
+    private void shrink() {
+      if (buffer.length > MAX_RETAINED_BUFFER_CHARS) buffer = new byte[INITIAL_BUFFER_CHARS];
+    }
+  }
+
+  private static class Decoder {
+    private final String frame;
+    private int position = 0;
+
+    private Decoder(String frame) {
+      this.frame = frame;
+    }
+
+    private long readNumber(char terminator) {
+      long value = 0;
+      int start = position;
+      char c;
+      while (position < frame.length() && (c = frame.charAt(position)) != terminator) {
+        if (c < '0' || c > '9' || position - start > 18) {
+          throw new IllegalArgumentException("Malformed number at " + position);
+        }
+        value = value * 10 + (c - '0');
+        position++;
+      }
+      if (position == start || position == frame.length()) {
+        throw new IllegalArgumentException("Truncated protocol frame");
+      }
+      position++; // Terminator
+      return value;
+    }
+
+    private long readInt() {
+      return readNumber(';');
+    }
+
+    private int readCount() {
+      long count = readInt();
+      if (count > frame.length() - position) throw new IllegalArgumentException("Bad count");
+      return (int) count;
+    }
+
+    private UUID readUUID() {
+      if (position + UUID_CHARS > frame.length()) {
+        throw new IllegalArgumentException("Truncated protocol frame");
+      }
+      UUID id = UUID.fromString(frame.substring(position, position + UUID_CHARS));
+      position += UUID_CHARS;
+      return id;
+    }
+
+    private String readString() {
+      if (position < frame.length() && frame.charAt(position) == '-') {
+        position++;
+        return null;
+      }
+      long length = readNumber(':');
+      if (length > frame.length() - position) {
+        throw new IllegalArgumentException("Truncated protocol frame");
+      }
+      String value = frame.substring(position, position + (int) length);
+      position += (int) length;
+      return value;
+    }
+  }
+}
@@ -1,58 +1,78 @@
 package protocol;
 
+import java.util.List;
 import java.util.UUID;
 
 public class MessageProtocol {
 
   public static final String BUCKET_PREFIX = "ass1ocr";
-  public static final String DELIMITER_REGEX = "\\|\\|\\|";
 
   public static final String ERROR_PREFIX = "ERROR: ";
 
   // Application messages
-  public static final String APP_MANAGER_TASK = "new_task";
+  public static String createManagerTaskMessage(
+      UUID id, String inputFilePath, int linesPerWorker, boolean terminate) {
+    return createManagerTaskMessage(
+        id, inputFilePath, linesPerWorker, terminate, ProtocolMessage.Priority.NORMAL);
+  }
+
+  public static String createManagerTaskMessage(
+      UUID id,
+      String inputFilePath,
+      int linesPerWorker,
+      boolean terminate,
+      ProtocolMessage.Priority priority) {
+    return MessageCodec.encode(
+        new ProtocolMessage.AppTask(id, inputFilePath, linesPerWorker, terminate, priority));
+  }
 
   // Manager messages
-  public static final String MANAGER_WORKER_TASK = "new_image_task";
-  public static final String MANAGER_DONE = "done_task";
-  public static final String MANAGER_TERMINATED = "terminated";
+  public static String createManagerResponseMessage(int segments) {
+    return MessageCodec.encode(new ProtocolMessage.ManagerDone(segments));
+  }
 
-  // Worker messages
-  public static final String WORKER_TASK_FINISH = "done_ocr_task";
-  public static final String WORKER_TASK_FAIL = "task_fail";
+  public static String createManagerTerminationMessage() {
+    return MessageCodec.encode(ProtocolMessage.Signal.MANAGER_TERMINATED);
+  }
 
-  public static String createManagerTaskMessage(
-      UUID id, String inputFilePath, int linesPerWorker, boolean terminate) {
-    return String.format(
-        "%s|||%s|||%s|||%d|||%b",
-        APP_MANAGER_TASK, id, inputFilePath, linesPerWorker, terminate);
+  public static String createManagerDeferredMessage() {
+    return MessageCodec.encode(ProtocolMessage.Signal.MANAGER_DEFERRED);
   }
 
-  public static String createManagerResponseMessage() {
-    return MANAGER_DONE;
+  public static String createManagerProgressMessage(int segments, long rows) {
+    return MessageCodec.encode(new ProtocolMessage.ManagerProgress(segments, rows));
   }
 
-  public static String createManagerTerminationMessage() {
-    return MANAGER_TERMINATED;
+  public static String createManagerFailedMessage(String reason) {
+    return MessageCodec.encode(new ProtocolMessage.ManagerFailed(reason));
   }
 
-  public static String createWorkerTaskMessage(UUID id, String line) {
-    return String.format("%s|||%s|||%s", MANAGER_WORKER_TASK, id, line);
+  public static String createWorkerTaskMessage(UUID id, List<String> imageURLs) {
+    return createWorkerTaskMessage(id, ProtocolMessage.UNTRACKED_TASK, imageURLs);
   }
 
-  public static String createWorkerResponse(UUID id, String URL, String result) {
-    return String.format("%s|||%s|||%s|||%s", WORKER_TASK_FINISH, id, URL, result);
+  public static String createWorkerTaskMessage(UUID id, long taskId, List<String> imageURLs) {
+    return MessageCodec.encode(new ProtocolMessage.WorkerTask(id, taskId, imageURLs));
   }
 
-  public static String createWorkerFailMessage(String message) {
-    return String.format("%s|||%s", WORKER_TASK_FAIL, message);
+  public static String createWorkerStopMessage() {
+    return MessageCodec.encode(ProtocolMessage.Signal.WORKER_STOP);
+  }
+
+  // Worker messages
+  public static String createWorkerResponse(UUID id, List<ImageResult> results) {
+    return createWorkerResponse(id, ProtocolMessage.UNTRACKED_TASK, results);
   }
 
-  public static String createResultSummary(String URL, String result) {
-    return String.format("%s|||%s", URL, result);
+  public static String createWorkerResponse(UUID id, long taskId, List<ImageResult> results) {
+    return MessageCodec.encode(new ProtocolMessage.WorkerResults(id, taskId, results));
+  }
+
+  public static String createWorkerFailMessage(String message) {
+    return MessageCodec.encode(new ProtocolMessage.WorkerFail(message));
   }
 
-  public static String[] split(String str) {
-    return str.split(DELIMITER_REGEX);
+  public static ProtocolMessage parse(String body) {
+    return MessageCodec.decode(body);
   }
 }
@@ -0,0 +1,90 @@
+package protocol;
+
+import adapters.BlobStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+// Spills results too large for a queue message to the blob store, the message keeps a pointer
+public class PayloadStore {
+
+  public static final String PAYLOAD_BUCKET =
+      String.format("%s-%s", MessageProtocol.BUCKET_PREFIX, "payloads");
+
+  // Ten of these still fit in one 256 KB message even when the text does not compress. Measured
+  // in UTF-8 bytes, as the message limit is.
+  public static final int DEFAULT_OFFLOAD_THRESHOLD_BYTES = 16 * 1024;
+
+  private static final String KEY_PREFIX = "results/";
+
+  private final BlobStorage storage;
+  private final int offloadThresholdBytes;
+
+  private final LongAdder offloaded = new LongAdder();
+  private final LongAdder resolved = new LongAdder();
+
+  public PayloadStore(BlobStorage storage) {
+    this(storage, DEFAULT_OFFLOAD_THRESHOLD_BYTES);
+  }
+
+  public PayloadStore(BlobStorage storage, int offloadThresholdBytes) {
+    this.storage = storage;
+    this.offloadThresholdBytes = offloadThresholdBytes;
+    storage.createBucket(PAYLOAD_BUCKET);
+  }
+
+  public ImageResult offloadIfLarge(ImageResult result) {
+    String text = result.getResult();
+    if (result.isOffloaded() || text == null || !exceeds(text, offloadThresholdBytes)) {
+      return result;
+    }
+    String key = KEY_PREFIX + UUID.randomUUID();
+    storage.uploadString(PAYLOAD_BUCKET, key, text);
+    offloaded.increment();
+    return new ImageResult(result.getURL(), null, key, result.getElapsedMillis());
+  }
+
+  // Counts the UTF-8 bytes of the text only as far as needed. A char never takes more than three.
+  private static boolean exceeds(String text, int maxBytes) {
+    if ((long) text.length() * 3 <= maxBytes) return false;
+    if (text.length() > maxBytes) return true;
+    long bytes = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < text.length()
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        bytes += 4; // Both chars of the pair
+        i++;
+      } else {
+        bytes += 3;
+      }
+      if (bytes > maxBytes) return true;
+    }
+    return false;
+  }
+
+  public String resolve(ImageResult result) throws IOException {
+    if (!result.isOffloaded()) return result.getResult();
+    try (InputStream stream = storage.getFileStream(PAYLOAD_BUCKET, result.getPayloadKey())) {
+      if (stream == null) throw new IOException("Missing payload " + result.getPayloadKey());
+      resolved.increment();
+      return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  public void release(ImageResult result) {
+    if (result.isOffloaded()) storage.deleteObject(PAYLOAD_BUCKET, result.getPayloadKey());
+  }
+
+  public String getStats() {
+    return String.format("payloads offloaded %d, resolved %d", offloaded.sum(), resolved.sum());
+  }
+}
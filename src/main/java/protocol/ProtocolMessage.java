@@ -0,0 +1,269 @@
+package protocol;
+
+import java.util.List;
+import java.util.UUID;
+
+public abstract class ProtocolMessage {
+
+  // Task ids count from 1 within a job, tasks from older senders carry no id
+  public static final long UNTRACKED_TASK = 0;
+
+  public enum Type {
+    APP_TASK(1),
+    MANAGER_DONE(2),
+    MANAGER_TERMINATED(3),
+    WORKER_TASK(4),
+    WORKER_STOP(5),
+    WORKER_RESULTS(6),
+    WORKER_FAIL(7),
+    MANAGER_DEFERRED(8),
+    MANAGER_PROGRESS(9),
+    MANAGER_FAILED(10);
+
+    private static final Type[] BY_CODE = new Type[11];
+
+    static {
+      for (Type type : values()) BY_CODE[type.code] = type;
+    }
+
+    private final int code;
+
+    Type(int code) {
+      this.code = code;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public static Type fromCode(int code) {
+      Type type = code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+      if (type == null) throw new IllegalArgumentException("Unknown message type " + code);
+      return type;
+    }
+  }
+
+  public enum Priority {
+    HIGH,
+    NORMAL,
+    LOW;
+
+    public static Priority fromCode(int code) {
+      if (code < 0 || code >= values().length) {
+        throw new IllegalArgumentException("Unknown priority " + code);
+      }
+      return values()[code];
+    }
+  }
+
+  public abstract Type getType();
+
+  public static class AppTask extends ProtocolMessage {
+    private final UUID appId;
+    private final String inputKey;
+    private final int linesPerWorker;
+    private final boolean terminate;
+    private final Priority priority;
+
+    public AppTask(UUID appId, String inputKey, int linesPerWorker, boolean terminate) {
+      this(appId, inputKey, linesPerWorker, terminate, Priority.NORMAL);
+    }
+
+    public AppTask(
+        UUID appId, String inputKey, int linesPerWorker, boolean terminate, Priority priority) {
+      this.appId = appId;
+      this.inputKey = inputKey;
+      this.linesPerWorker = linesPerWorker;
+      this.terminate = terminate;
+      this.priority = priority;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.APP_TASK;
+    }
+
+    public UUID getAppId() {
+      return appId;
+    }
+
+    public String getInputKey() {
+      return inputKey;
+    }
+
+    public int getLinesPerWorker() {
+      return linesPerWorker;
+    }
+
+    public boolean isTerminate() {
+      return terminate;
+    }
+
+    public Priority getPriority() {
+      return priority;
+    }
+  }
+
+  public static class WorkerTask extends ProtocolMessage {
+    private final UUID appId;
+    private final long taskId;
+    private final List<String> imageURLs;
+
+    public WorkerTask(UUID appId, List<String> imageURLs) {
+      this(appId, UNTRACKED_TASK, imageURLs);
+    }
+
+    public WorkerTask(UUID appId, long taskId, List<String> imageURLs) {
+      this.appId = appId;
+      this.taskId = taskId;
+      this.imageURLs = imageURLs;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.WORKER_TASK;
+    }
+
+    public UUID getAppId() {
+      return appId;
+    }
+
+    public long getTaskId() {
+      return taskId;
+    }
+
+    public List<String> getImageURLs() {
+      return imageURLs;
+    }
+  }
+
+  public static class WorkerResults extends ProtocolMessage {
+    private final UUID appId;
+    private final long taskId;
+    private final List<ImageResult> results;
+
+    public WorkerResults(UUID appId, List<ImageResult> results) {
+      this(appId, UNTRACKED_TASK, results);
+    }
+
+    public WorkerResults(UUID appId, long taskId, List<ImageResult> results) {
+      this.appId = appId;
+      this.taskId = taskId;
+      this.results = results;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.WORKER_RESULTS;
+    }
+
+    public UUID getAppId() {
+      return appId;
+    }
+
+    public long getTaskId() {
+      return taskId;
+    }
+
+    public List<ImageResult> getResults() {
+      return results;
+    }
+  }
+
+  public static class WorkerFail extends ProtocolMessage {
+    private final String reason;
+
+    public WorkerFail(String reason) {
+      this.reason = reason;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.WORKER_FAIL;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+  }
+
+  // Result segments 0 to segments - 1 of the job are stored and hold rows results in total
+  public static class ManagerProgress extends ProtocolMessage {
+    private final int segments;
+    private final long rows;
+
+    public ManagerProgress(int segments, long rows) {
+      this.segments = segments;
+      this.rows = rows;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.MANAGER_PROGRESS;
+    }
+
+    public int getSegments() {
+      return segments;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+  }
+
+  public static class ManagerFailed extends ProtocolMessage {
+    private final String reason;
+
+    public ManagerFailed(String reason) {
+      this.reason = reason;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.MANAGER_FAILED;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+  }
+
+  // The job is answered with result segments 0 to segments - 1, anything stored past them is not
+  // part of it. Older managers did not send the count.
+  public static class ManagerDone extends ProtocolMessage {
+    public static final int UNKNOWN_SEGMENTS = -1;
+
+    private final int segments;
+
+    public ManagerDone(int segments) {
+      this.segments = segments;
+    }
+
+    @Override
+    public Type getType() {
+      return Type.MANAGER_DONE;
+    }
+
+    public int getSegments() {
+      return segments;
+    }
+  }
+
+  // Messages without a payload
+  public static class Signal extends ProtocolMessage {
+    public static final Signal MANAGER_TERMINATED = new Signal(Type.MANAGER_TERMINATED);
+    public static final Signal MANAGER_DEFERRED = new Signal(Type.MANAGER_DEFERRED);
+    public static final Signal WORKER_STOP = new Signal(Type.WORKER_STOP);
+
+    private final Type type;
+
+    private Signal(Type type) {
+      this.type = type;
+    }
+
+    @Override
+    public Type getType() {
+      return type;
+    }
+  }
+}
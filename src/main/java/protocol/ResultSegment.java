@@ -0,0 +1,42 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.Reader;
+
+public class ResultSegment {
+
+  public static final String KEY_PREFIX = "results/";
+  private static final String SEGMENT_PREFIX = KEY_PREFIX + "segment-";
+
+  public interface RecordCallback {
+    void onRecord(String URL, String result) throws IOException;
+  }
+
+  public static String segmentKey(int segmentIndex) {
+    return String.format("%s%06d", SEGMENT_PREFIX, segmentIndex);
+  }
+
+  public static int segmentIndex(String key) {
+    return Integer.parseInt(key.substring(SEGMENT_PREFIX.length()));
+  }
+
+  public static boolean isSegmentKey(String key) {
+    return key.startsWith(KEY_PREFIX);
+  }
+
+  // Records are length prefixed since OCR text may contain newlines and delimiters
+  public static void appendRecord(StringBuilder segment, String URL, String result) {
+    LengthPrefixedFields.appendField(segment, URL);
+    LengthPrefixedFields.appendField(segment, result);
+  }
+
+  public static int readRecords(Reader reader, RecordCallback callback) throws IOException {
+    int records = 0;
+    String URL;
+    while ((URL = LengthPrefixedFields.readField(reader)) != null) {
+      callback.onRecord(URL, LengthPrefixedFields.readRequiredField(reader));
+      records++;
+    }
+    return records;
+  }
+}
@@ -0,0 +1,308 @@
+package worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Downloads images over one shared HTTP client, whose connections are kept alive and reused
+// across tasks. Every attempt has a deadline, bodies are streamed into a per thread buffer and
+// cut off at a size cap, and each host only gets a bounded number of concurrent requests so a
+// slow host cannot take over all the fetch threads. Other URL schemes are read with the same
+// timeouts and cap.
+public class ImageFetcher {
+
+  private static final int INITIAL_BUFFER_BYTES = 256 * 1024;
+  private static final int RETAINED_BUFFER_BYTES = 4 * 1024 * 1024;
+  private static final long RETRY_BACKOFF_MILLIS = 200;
+
+  private final HttpClient client;
+  private final int readTimeoutMillis;
+  private final int connectTimeoutMillis;
+  private final int maxBytes;
+  private final int maxPerHost;
+  private final int retries;
+  private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private final ThreadLocal<byte[]> buffers =
+      ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_BYTES]);
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder retried = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder tooLarge = new LongAdder();
+  private final LongAdder hostWaits = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+
+  public ImageFetcher(
+      int connectTimeoutMillis, int readTimeoutMillis, int maxBytes, int maxPerHost, int retries) {
+    this.connectTimeoutMillis = connectTimeoutMillis;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.maxBytes = maxBytes;
+    this.maxPerHost = maxPerHost;
+    this.retries = retries;
+    client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+  }
+
+  public static class TooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private TooLargeException(long size, int maxBytes) {
+      super(String.format("Image larger than %d bytes (%d)", maxBytes, size));
+    }
+  }
+
+  private static class StatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    private StatusException(int status) {
+      super("HTTP " + status);
+      this.retryable = status == 429 || status >= 500;
+    }
+  }
+
+  public byte[] fetch(String imageURL) throws IOException, InterruptedException {
+    requests.increment();
+    try {
+      String lowerCase = imageURL.toLowerCase(Locale.ROOT);
+      byte[] image =
+          lowerCase.startsWith("http://") || lowerCase.startsWith("https://")
+              ? fetchHttp(toURI(imageURL))
+              : fetchOther(imageURL);
+      bytes.add(image.length);
+      return image;
+    } catch (IOException | RuntimeException e) {
+      failed.increment();
+      if (e instanceof TooLargeException) tooLarge.increment();
+      throw e;
+    }
+  }
+
+  private byte[] fetchHttp(URI uri) throws IOException, InterruptedException {
+    Semaphore permits = hostPermits.computeIfAbsent(hostKey(uri), h -> new Semaphore(maxPerHost));
+    for (int attempt = 0; ; attempt++) {
+      if (!permits.tryAcquire()) {
+        hostWaits.increment();
+        if (!permits.tryAcquire(readTimeoutMillis, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Too many requests in flight to " + uri.getHost());
+        }
+      }
+      try {
+        return attempt(uri);
+      } catch (IOException e) {
+        if (attempt >= retries || !isRetryable(e)) throw e;
+      } finally {
+        permits.release();
+      }
+      retried.increment();
+      Thread.sleep(RETRY_BACKOFF_MILLIS << attempt);
+    }
+  }
+
+  private byte[] attempt(URI uri) throws IOException, InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+    HttpRequest request =
+        HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(readTimeoutMillis)).GET().build();
+    BufferSubscriber body = new BufferSubscriber(buffers.get(), maxBytes);
+    CompletableFuture<HttpResponse<Integer>> response = client.sendAsync(request, body::start);
+    try {
+      HttpResponse<Integer> result =
+          response.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (result.statusCode() != 200) throw new StatusException(result.statusCode());
+      return body.take(this::retain);
+    } catch (TimeoutException e) {
+      throw new HttpTimeoutException("Timed out after " + readTimeoutMillis + " ms: " + uri);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      throw new IOException(cause);
+    } finally {
+      body.close(); // Stops a body still streaming in, the buffer is reused by the next fetch
+      response.cancel(true);
+    }
+  }
+
+  // Timeouts, dropped connections, throttling and server errors are worth another attempt
+  private static boolean isRetryable(IOException e) {
+    if (e instanceof StatusException) return ((StatusException) e).retryable;
+    return !(e instanceof TooLargeException);
+  }
+
+  private byte[] fetchOther(String imageURL) throws IOException {
+    URLConnection connection = new URL(imageURL).openConnection();
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    long length = connection.getContentLengthLong();
+    if (length > maxBytes) throw new TooLargeException(length, maxBytes);
+    byte[] buffer = buffers.get();
+    int size = 0;
+    try (InputStream stream = connection.getInputStream()) {
+      while (true) {
+        if (size == buffer.length) {
+          if (size >= maxBytes) {
+            if (stream.read() < 0) break;
+            throw new TooLargeException(size + 1L, maxBytes);
+          }
+          buffer = Arrays.copyOf(buffer, (int) Math.min(maxBytes, buffer.length * 2L));
+        }
+        int read = stream.read(buffer, size, buffer.length - size);
+        if (read < 0) break;
+        size += read;
+      }
+    } finally {
+      retain(buffer);
+    }
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private void retain(byte[] buffer) {
+    if (buffer.length <= RETAINED_BUFFER_BYTES) buffers.set(buffer);
+  }
+
+  // Streams a response body into a caller owned buffer until it completes, exceeds the size cap
+  // or the caller gives up on it
+  private static class BufferSubscriber implements HttpResponse.BodySubscriber<Integer> {
+    private final int maxBytes;
+    private final CompletableFuture<Integer> done = new CompletableFuture<>();
+    private byte[] buffer;
+    private int size = 0;
+    private boolean closed = false;
+    private Flow.Subscription subscription;
+
+    private BufferSubscriber(byte[] buffer, int maxBytes) {
+      this.buffer = buffer;
+      this.maxBytes = maxBytes;
+    }
+
+    // Error bodies are not worth downloading, only the status matters
+    private BufferSubscriber start(HttpResponse.ResponseInfo info) {
+      long length = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+      if (info.statusCode() != 200) {
+        done.complete(0);
+      } else if (length > maxBytes) {
+        done.completeExceptionally(new TooLargeException(length, maxBytes));
+      }
+      return this;
+    }
+
+    @Override
+    public CompletableFuture<Integer> getBody() {
+      return done;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      if (closed || done.isDone()) {
+        subscription.cancel();
+        return;
+      }
+      subscription.request(Long.MAX_VALUE); // Everything ends up in the buffer anyway
+    }
+
+    @Override
+    public synchronized void onNext(List<ByteBuffer> chunks) {
+      if (closed || done.isDone()) return;
+      for (ByteBuffer chunk : chunks) {
+        int length = chunk.remaining();
+        if ((long) size + length > maxBytes) {
+          done.completeExceptionally(new TooLargeException((long) size + length, maxBytes));
+          subscription.cancel();
+          return;
+        }
+        if (size + length > buffer.length) {
+          long grown = Math.max((long) size + length, buffer.length * 2L);
+          buffer = Arrays.copyOf(buffer, (int) Math.min(maxBytes, grown));
+        }
+        chunk.get(buffer, size, length);
+        size += length;
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      done.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      done.complete(size);
+    }
+
+    // Copies out the completed body and hands the possibly grown buffer back for reuse
+    private synchronized byte[] take(Consumer<byte[]> retain) {
+      retain.accept(buffer);
+      return Arrays.copyOf(buffer, size);
+    }
+
+    private synchronized void close() {
+      closed = true;
+      if (subscription != null) subscription.cancel();
+    }
+  }
+
+  // Query and fragment free key, the connection pool is per scheme, host and port as well
+  private static String hostKey(URI uri) {
+    return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+  }
+
+  // Also accepts the unencoded URLs people paste into input files, the fragment is dropped
+  private static URI toURI(String imageURL) throws IOException {
+    int fragment = imageURL.indexOf('#');
+    String withoutFragment = fragment < 0 ? imageURL : imageURL.substring(0, fragment);
+    try {
+      return new URI(withoutFragment);
+    } catch (URISyntaxException e) {
+      URL url = new URL(withoutFragment);
+      try {
+        return new URI(
+            url.getProtocol(),
+            url.getUserInfo(),
+            url.getHost(),
+            url.getPort(),
+            url.getPath(),
+            url.getQuery(),
+            null);
+      } catch (URISyntaxException invalid) {
+        throw new IOException("Invalid image URL " + imageURL, invalid);
+      }
+    }
+  }
+
+  public String getStats() {
+    return String.format(
+        "fetcher requests %d, retried %d, failed %d, too large %d, host waits %d, MB %.1f",
+        requests.sum(),
+        retried.sum(),
+        failed.sum(),
+        tooLarge.sum(),
+        hostWaits.sum(),
+        bytes.sum() / 1e6);
+  }
+}
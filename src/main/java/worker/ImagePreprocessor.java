@@ -0,0 +1,255 @@
+package worker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+// Prepares a decoded image for Tesseract: converts it to 8 bit grayscale while box filtering it
+// down to a pixel budget, then optionally straightens and binarizes it. Everything works on the
+// raw gray bytes so no intermediate color image is ever allocated.
+public class ImagePreprocessor {
+
+  private static final double MAX_SKEW_DEGREES = 5;
+  private static final double SKEW_STEP_DEGREES = 0.5;
+  private static final int SKEW_SAMPLE_SIDE = 800;
+  private static final int WHITE = 255;
+
+  private final int maxSide;
+  private final boolean binarize;
+  private final boolean deskew;
+
+  // maxSide bounds the longer side in pixels, 3500 is an A4 page at 300 DPI
+  public ImagePreprocessor(int maxSide, boolean binarize, boolean deskew) {
+    if (maxSide <= 0) throw new IllegalArgumentException("maxSide must be positive");
+    this.maxSide = maxSide;
+    this.binarize = binarize;
+    this.deskew = deskew;
+  }
+
+  public BufferedImage process(BufferedImage image) {
+    double scale = Math.min(1, (double) maxSide / Math.max(image.getWidth(), image.getHeight()));
+    GrayImage gray =
+        toGray(
+            image,
+            Math.max(1, (int) Math.round(image.getWidth() * scale)),
+            Math.max(1, (int) Math.round(image.getHeight() * scale)));
+    if (deskew) {
+      double angle = estimateSkewDegrees(gray);
+      if (angle != 0) gray = rotate(gray, angle);
+    }
+    if (binarize) threshold(gray, otsuThreshold(gray));
+    return gray.toImage();
+  }
+
+  private static class GrayImage {
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+
+    private GrayImage(int width, int height) {
+      this.width = width;
+      this.height = height;
+      this.pixels = new byte[width * height];
+    }
+
+    private int get(int x, int y) {
+      return pixels[y * width + x] & 0xff;
+    }
+
+    private BufferedImage toImage() {
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+      byte[] target = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+      System.arraycopy(pixels, 0, target, 0, pixels.length);
+      return image;
+    }
+  }
+
+  // Averages the block of source pixels each target pixel covers, reading one source row at a time
+  private static GrayImage toGray(BufferedImage image, int width, int height) {
+    int sourceWidth = image.getWidth();
+    int sourceHeight = image.getHeight();
+    GrayImage gray = new GrayImage(width, height);
+    int[] columnEnds = new int[width + 1];
+    for (int x = 0; x <= width; x++) {
+      columnEnds[x] = (int) ((long) x * sourceWidth / width);
+    }
+    RowReader reader = new RowReader(image);
+    int[] sums = new int[width];
+    int sourceY = 0;
+    for (int y = 0; y < height; y++) {
+      Arrays.fill(sums, 0);
+      int rowEnd = (int) ((long) (y + 1) * sourceHeight / height);
+      int rows = rowEnd - sourceY;
+      for (; sourceY < rowEnd; sourceY++) {
+        int[] row = reader.read(sourceY);
+        for (int x = 0; x < width; x++) {
+          for (int sourceX = columnEnds[x]; sourceX < columnEnds[x + 1]; sourceX++) {
+            sums[x] += row[sourceX];
+          }
+        }
+      }
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        gray.pixels[offset + x] = (byte) (sums[x] / (rows * (columnEnds[x + 1] - columnEnds[x])));
+      }
+    }
+    return gray;
+  }
+
+  // Reads rows as luminance. The common decoded layouts go through the raster's samples, which
+  // skips the per pixel color model conversion getRGB does for everything else.
+  private static class RowReader {
+    private final BufferedImage image;
+    private final WritableRaster raster;
+    private final int bands;
+    private final int[] samples;
+    private final int[] row;
+
+    private RowReader(BufferedImage image) {
+      this.image = image;
+      this.row = new int[image.getWidth()];
+      switch (image.getType()) {
+        case BufferedImage.TYPE_BYTE_GRAY:
+          bands = 1;
+          break;
+        case BufferedImage.TYPE_INT_RGB:
+        case BufferedImage.TYPE_3BYTE_BGR:
+          bands = 3;
+          break;
+        case BufferedImage.TYPE_INT_ARGB:
+        case BufferedImage.TYPE_4BYTE_ABGR:
+          bands = 4;
+          break;
+        default:
+          bands = 0;
+      }
+      this.raster = bands > 0 ? image.getRaster() : null;
+      this.samples = new int[row.length * Math.max(bands, 1)];
+    }
+
+    private int[] read(int y) {
+      int width = row.length;
+      if (bands == 0) {
+        image.getRGB(0, y, width, 1, samples, 0, width);
+        for (int x = 0; x < width; x++) row[x] = luminance(samples[x]);
+        return row;
+      }
+      raster.getPixels(0, y, width, 1, samples);
+      if (bands == 1) return samples;
+      for (int x = 0, i = 0; x < width; x++, i += bands) {
+        int alpha = bands == 4 ? samples[i + 3] : 255;
+        row[x] = luminance(samples[i], samples[i + 1], samples[i + 2], alpha);
+      }
+      return row;
+    }
+  }
+
+  // Integer Rec. 601 weights, transparent pixels count as white paper
+  private static int luminance(int argb) {
+    return luminance((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, argb >>> 24);
+  }
+
+  private static int luminance(int r, int g, int b, int alpha) {
+    int luma = (r * 299 + g * 587 + b * 114) / 1000;
+    return (luma * alpha + WHITE * (255 - alpha)) / 255;
+  }
+
+  private static int otsuThreshold(GrayImage gray) {
+    long[] histogram = new long[256];
+    for (byte pixel : gray.pixels) histogram[pixel & 0xff]++;
+    long total = gray.pixels.length;
+    double sum = 0;
+    for (int i = 0; i < 256; i++) sum += i * (double) histogram[i];
+    double backgroundSum = 0;
+    long background = 0;
+    double bestVariance = -1;
+    int best = 127;
+    for (int t = 0; t < 256; t++) {
+      background += histogram[t];
+      if (background == 0) continue;
+      long foreground = total - background;
+      if (foreground == 0) break;
+      backgroundSum += t * (double) histogram[t];
+      double backgroundMean = backgroundSum / background;
+      double foregroundMean = (sum - backgroundSum) / foreground;
+      double difference = backgroundMean - foregroundMean;
+      double variance = (double) background * foreground * difference * difference;
+      if (variance > bestVariance) {
+        bestVariance = variance;
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  private static void threshold(GrayImage gray, int threshold) {
+    byte[] pixels = gray.pixels;
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = (pixels[i] & 0xff) > threshold ? (byte) WHITE : 0;
+    }
+  }
+
+  // Text lines are horizontal when the dark pixel counts per row vary the most. Tries shears of
+  // a downscaled copy over a small range of angles.
+  private static double estimateSkewDegrees(GrayImage gray) {
+    int factor = Math.max(1, Math.max(gray.width, gray.height) / SKEW_SAMPLE_SIDE);
+    int width = gray.width / factor;
+    int height = gray.height / factor;
+    if (width < 2 || height < 2) return 0;
+    int threshold = otsuThreshold(gray);
+    boolean[] dark = new boolean[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        dark[y * width + x] = gray.get(x * factor, y * factor) <= threshold;
+      }
+    }
+    double bestAngle = 0;
+    double bestScore = -1;
+    int[] rows = new int[height];
+    for (double angle = -MAX_SKEW_DEGREES; angle <= MAX_SKEW_DEGREES; angle += SKEW_STEP_DEGREES) {
+      Arrays.fill(rows, 0);
+      double slope = Math.tan(Math.toRadians(angle));
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          if (!dark[y * width + x]) continue;
+          int row = y - (int) Math.round(x * slope);
+          if (row >= 0 && row < height) rows[row]++;
+        }
+      }
+      double score = 0;
+      for (int i = 1; i < height; i++) {
+        double step = rows[i] - rows[i - 1];
+        score += step * step;
+      }
+      if (score > bestScore) {
+        bestScore = score;
+        bestAngle = angle;
+      }
+    }
+    return bestAngle;
+  }
+
+  // Nearest neighbour rotation about the center, uncovered corners become white
+  private static GrayImage rotate(GrayImage gray, double degrees) {
+    GrayImage rotated = new GrayImage(gray.width, gray.height);
+    double radians = Math.toRadians(degrees);
+    double cos = Math.cos(radians);
+    double sin = Math.sin(radians);
+    double centerX = gray.width / 2.0;
+    double centerY = gray.height / 2.0;
+    for (int y = 0; y < gray.height; y++) {
+      double dy = y - centerY;
+      for (int x = 0; x < gray.width; x++) {
+        double dx = x - centerX;
+        int sourceX = (int) Math.round(centerX + dx * cos - dy * sin);
+        int sourceY = (int) Math.round(centerY + dx * sin + dy * cos);
+        boolean inside =
+            sourceX >= 0 && sourceX < gray.width && sourceY >= 0 && sourceY < gray.height;
+        rotated.pixels[y * gray.width + x] =
+            inside ? gray.pixels[sourceY * gray.width + sourceX] : (byte) WHITE;
+      }
+    }
+    return rotated;
+  }
+}
@@ -0,0 +1,96 @@
+package worker;
+
+import java.awt.image.BufferedImage;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class ImageTask {
+
+  private final TaskBatch batch;
+  private final String imageURL;
+
+  private byte[] imageBytes;
+  private String contentDigest;
+  private BufferedImage image;
+  private String result;
+  private boolean cached = false;
+  private boolean failed = false;
+  private long startNanos;
+  private long elapsedNanos;
+
+  public ImageTask(TaskBatch batch, String imageURL) {
+    this.batch = batch;
+    this.imageURL = imageURL;
+  }
+
+  public TaskBatch getBatch() {
+    return batch;
+  }
+
+  public UUID getAppId() {
+    return batch.getAppId();
+  }
+
+  public String getImageURL() {
+    return imageURL;
+  }
+
+  public byte[] getImageBytes() {
+    return imageBytes;
+  }
+
+  public void setImageBytes(byte[] imageBytes) {
+    this.imageBytes = imageBytes;
+  }
+
+  public String getContentDigest() {
+    return contentDigest;
+  }
+
+  public void setContentDigest(String contentDigest) {
+    this.contentDigest = contentDigest;
+  }
+
+  public BufferedImage getImage() {
+    return image;
+  }
+
+  public void setImage(BufferedImage image) {
+    this.imageBytes = null; // Release the encoded bytes once decoded
+    this.image = image;
+  }
+
+  public String getResult() {
+    return result;
+  }
+
+  public void setResult(String result) {
+    this.image = null;
+    this.result = result;
+    if (startNanos != 0) elapsedNanos = System.nanoTime() - startNanos;
+  }
+
+  public void markStarted() {
+    startNanos = System.nanoTime();
+  }
+
+  public long getElapsedMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
+  public boolean isFailed() {
+    return failed;
+  }
+
+  public void setFailed(boolean failed) {
+    this.failed = failed;
+  }
+}
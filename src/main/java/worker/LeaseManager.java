@@ -0,0 +1,157 @@
+package worker;
+
+import adapters.MessageQueue;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the task messages a worker is processing invisible to other workers for as long as it
+// works on them, so a slow task is not picked up and redone elsewhere when its receive-time
+// visibility timeout runs out. A crashed worker's tasks reappear within one lease, and so do the
+// tasks of a worker that is stuck on them for longer than the maximum lease age.
+public class LeaseManager {
+
+  public static final int LEASE_SECONDS = 60;
+  public static final int MAX_LEASE_SECONDS = 60 * 15;
+
+  private static class Lease {
+    private final Message message;
+    private final long acquiredNanos;
+
+    private Lease(Message message, long acquiredNanos) {
+      this.message = message;
+      this.acquiredNanos = acquiredNanos;
+    }
+  }
+
+  private final MessageQueue queue;
+  private final int leaseSeconds;
+  private final long maxLeaseNanos;
+  private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+  private final LongAdder extended = new LongAdder();
+  private final LongAdder released = new LongAdder();
+  private final LongAdder lost = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAdder redelivered = new LongAdder();
+  private final LongAdder duplicates = new LongAdder();
+
+  public LeaseManager(MessageQueue queue, int leaseSeconds, int maxLeaseSeconds) {
+    this.queue = queue;
+    this.leaseSeconds = leaseSeconds;
+    this.maxLeaseNanos = TimeUnit.SECONDS.toNanos(maxLeaseSeconds);
+  }
+
+  public void start() {
+    long periodMillis = TimeUnit.SECONDS.toMillis(leaseSeconds) / 3;
+    heartbeat.scheduleWithFixedDelay(
+        this::extendAll, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public void stop() {
+    heartbeat.shutdownNow();
+  }
+
+  // Returns false when this worker already holds the message. The redelivered copy then only
+  // refreshes the receipt handle, which is the one SQS accepts from now on, and keeps its age.
+  public boolean acquire(Message message) {
+    if (getReceiveCount(message) > 1) redelivered.increment();
+    boolean[] held = {false};
+    leases.compute(
+        message.messageId(),
+        (id, previous) -> {
+          if (previous == null) return new Lease(message, System.nanoTime());
+          held[0] = true;
+          return new Lease(message, previous.acquiredNanos);
+        });
+    if (held[0]) duplicates.increment();
+    return !held[0];
+  }
+
+  // Returns the latest copy of the message, the one to delete
+  public Message complete(Message message) {
+    Lease current = leases.remove(message.messageId());
+    return current != null ? current.message : message;
+  }
+
+  // Makes the message visible again right away so another worker can retry it, does nothing once
+  // the task completed or its lease was lost
+  public void release(Message message) {
+    Lease current = leases.remove(message.messageId());
+    if (current == null) return;
+    try {
+      queue.changeMessageVisibility(current.message, 0);
+      released.increment();
+    } catch (RuntimeException e) {
+      System.err.println("Failed releasing task lease: " + e.getMessage());
+    }
+  }
+
+  public void releaseAll() {
+    leases.values().forEach(lease -> release(lease.message));
+  }
+
+  public int size() {
+    return leases.size();
+  }
+
+  // A task held past the maximum age is no longer extended, it reappears once its lease runs out
+  // even when the worker never finishes it
+  private void extendAll() {
+    long now = System.nanoTime();
+    List<Lease> extending = new ArrayList<>();
+    for (Lease lease : leases.values()) {
+      if (now - lease.acquiredNanos < maxLeaseNanos) {
+        extending.add(lease);
+      } else if (leases.remove(lease.message.messageId(), lease)) {
+        expired.increment();
+        System.err.println("Task lease expired for message " + lease.message.messageId());
+      }
+    }
+    if (extending.isEmpty()) return;
+    List<Message> messages = new ArrayList<>(extending.size());
+    for (Lease lease : extending) messages.add(lease.message);
+    List<Message> failed;
+    try {
+      failed = queue.changeMessageVisibilityBatch(messages, leaseSeconds);
+    } catch (RuntimeException e) {
+      // Nothing was extended, the next heartbeat comes well before the leases run out
+      System.err.println("Failed extending task leases: " + e.getMessage());
+      return;
+    }
+    extended.add(messages.size() - failed.size());
+    for (Message message : failed) {
+      // The message was deleted or delivered again, whoever holds it now owns the task
+      Lease lease = leases.get(message.messageId());
+      if (lease != null && lease.message == message && leases.remove(message.messageId(), lease)) {
+        lost.increment();
+      }
+    }
+  }
+
+  private static int getReceiveCount(Message message) {
+    String count = message.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT);
+    return count == null ? 1 : Integer.parseInt(count);
+  }
+
+  public String getStats() {
+    return String.format(
+        "leases  held %d, extended %d, released %d, lost %d, expired %d, redelivered %d,"
+            + " duplicates %d",
+        leases.size(),
+        extended.sum(),
+        released.sum(),
+        lost.sum(),
+        expired.sum(),
+        redelivered.sum(),
+        duplicates.sum());
+  }
+}
@@ -0,0 +1,9 @@
+package worker;
+
+import net.sourceforge.tess4j.TesseractException;
+
+import java.awt.image.BufferedImage;
+
+public interface OCREngine {
+  String doOCR(BufferedImage image) throws TesseractException;
+}
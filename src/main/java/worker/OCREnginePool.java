@@ -0,0 +1,53 @@
+package worker;
+
+import net.sourceforge.tess4j.ITesseract;
+import net.sourceforge.tess4j.Tesseract;
+import net.sourceforge.tess4j.TesseractException;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+public class OCREnginePool {
+
+  private final BlockingQueue<OCREngine> engines;
+  private final int size;
+
+  public OCREnginePool(int size, String dataPath, String language) {
+    this(size, () -> createTesseract(dataPath, language));
+  }
+
+  public OCREnginePool(int size, Supplier<OCREngine> engineFactory) {
+    if (size <= 0) throw new IllegalArgumentException("OCR engine pool size must be positive");
+    this.size = size;
+    engines = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      engines.add(engineFactory.get());
+    }
+  }
+
+  private static OCREngine createTesseract(String dataPath, String language) {
+    ITesseract tesseract = new Tesseract();
+    tesseract.setDatapath(dataPath);
+    tesseract.setLanguage(language);
+    return tesseract::doOCR;
+  }
+
+  public String doOCR(BufferedImage image) throws TesseractException, InterruptedException {
+    OCREngine engine = engines.take(); // Blocks while all engines are busy
+    try {
+      return engine.doOCR(image);
+    } finally {
+      engines.add(engine);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int available() {
+    return engines.size();
+  }
+}
@@ -0,0 +1,118 @@
+package worker;
+
+public class PipelineConfig {
+
+  private static final String PROPERTY_PREFIX = "worker.pipeline.";
+
+  private final int receiverThreads;
+  private final int fetchThreads;
+  private final int fetchCapacity;
+  private final int fetchConnectTimeoutMillis;
+  private final int fetchReadTimeoutMillis;
+  private final int fetchMaxBytes;
+  private final int fetchPerHost;
+  private final int fetchRetries;
+  private final int decodeThreads;
+  private final int decodeCapacity;
+  private final boolean preprocessEnabled;
+  private final int preprocessMaxSide;
+  private final boolean preprocessBinarize;
+  private final boolean preprocessDeskew;
+  private final int preprocessThreads;
+  private final int preprocessCapacity;
+  private final int ocrCapacity;
+  private final int publishThreads;
+  private final int publishCapacity;
+  private final int maxLeaseSeconds;
+
+  public PipelineConfig(int ocrThreads) {
+    receiverThreads = property("receivers", 1);
+    fetchThreads = property("fetch.threads", ocrThreads * 2);
+    fetchCapacity = property("fetch.capacity", ocrThreads * 4);
+    fetchConnectTimeoutMillis = property("fetch.connect.timeout.ms", 5000);
+    fetchReadTimeoutMillis = property("fetch.read.timeout.ms", 30000);
+    fetchMaxBytes = property("fetch.max.bytes", 32 * 1024 * 1024);
+    fetchPerHost = property("fetch.per.host", Math.max(1, fetchThreads / 2));
+    fetchRetries = property("fetch.retries", 2);
+    decodeThreads = property("decode.threads", Math.max(1, ocrThreads / 2));
+    decodeCapacity = property("decode.capacity", ocrThreads * 2);
+    preprocessEnabled = flag("preprocess.enabled", false); // Until PreprocessBenchmark says so
+    preprocessMaxSide = property("preprocess.max.side", 3500); // A4 at 300 DPI
+    preprocessBinarize = flag("preprocess.binarize", false); // Tesseract thresholds by itself
+    preprocessDeskew = flag("preprocess.deskew", false);
+    preprocessThreads = property("preprocess.threads", Math.max(1, ocrThreads / 2));
+    preprocessCapacity = property("preprocess.capacity", ocrThreads * 2);
+    ocrCapacity = property("ocr.capacity", ocrThreads * 2);
+    publishThreads = property("publish.threads", 2);
+    publishCapacity = property("publish.capacity", ocrThreads * 4);
+    maxLeaseSeconds = property("lease.max.seconds", LeaseManager.MAX_LEASE_SECONDS);
+  }
+
+  private static int property(String name, int defaultValue) {
+    return Integer.getInteger(PROPERTY_PREFIX + name, defaultValue);
+  }
+
+  private static boolean flag(String name, boolean defaultValue) {
+    String value = System.getProperty(PROPERTY_PREFIX + name);
+    return value == null ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  public int getReceiverThreads() {
+    return receiverThreads;
+  }
+
+  public int getFetchThreads() {
+    return fetchThreads;
+  }
+
+  public int getFetchCapacity() {
+    return fetchCapacity;
+  }
+
+  public ImageFetcher createFetcher() {
+    return new ImageFetcher(
+        fetchConnectTimeoutMillis,
+        fetchReadTimeoutMillis,
+        fetchMaxBytes,
+        fetchPerHost,
+        fetchRetries);
+  }
+
+  public int getDecodeThreads() {
+    return decodeThreads;
+  }
+
+  public int getDecodeCapacity() {
+    return decodeCapacity;
+  }
+
+  // Null when images go to Tesseract exactly as decoded
+  public ImagePreprocessor createPreprocessor() {
+    if (!preprocessEnabled) return null;
+    return new ImagePreprocessor(preprocessMaxSide, preprocessBinarize, preprocessDeskew);
+  }
+
+  public int getPreprocessThreads() {
+    return preprocessThreads;
+  }
+
+  public int getPreprocessCapacity() {
+    return preprocessCapacity;
+  }
+
+  public int getOcrCapacity() {
+    return ocrCapacity;
+  }
+
+  public int getPublishThreads() {
+    return publishThreads;
+  }
+
+  public int getPublishCapacity() {
+    return publishCapacity;
+  }
+
+  public int getMaxLeaseSeconds() {
+    return maxLeaseSeconds;
+  }
+}
@@ -0,0 +1,141 @@
+package worker;
+
+import adapters.BlobStorage;
+import protocol.MessageProtocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ResultCache {
+
+  public static final String CACHE_BUCKET =
+      String.format("%s-%s", MessageProtocol.BUCKET_PREFIX, "result-cache");
+
+  private static final String URL_PREFIX = "url/";
+  private static final String DIGEST_PREFIX = "digest/";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Map<String, String> localTier;
+  private final BlobStorage sharedTier;
+  private final long ttlMillis;
+
+  private final LongAdder localHits = new LongAdder();
+  private final LongAdder sharedHits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+
+  public ResultCache(int localCapacity, BlobStorage sharedTier, long ttl, TimeUnit ttlUnit) {
+    this.sharedTier = sharedTier;
+    this.ttlMillis = ttlUnit.toMillis(ttl);
+    localTier =
+        new LinkedHashMap<>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > localCapacity;
+          }
+        };
+    if (sharedTier != null) sharedTier.createBucket(CACHE_BUCKET);
+  }
+
+  public String getByURL(String imageURL) {
+    return get(URL_PREFIX + digest(imageURL.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  public String getByDigest(String contentDigest) {
+    return get(DIGEST_PREFIX + contentDigest);
+  }
+
+  public void put(String imageURL, String contentDigest, String result) {
+    String urlKey = URL_PREFIX + digest(imageURL.getBytes(StandardCharsets.UTF_8));
+    String digestKey = contentDigest == null ? null : DIGEST_PREFIX + contentDigest;
+    synchronized (localTier) {
+      localTier.put(urlKey, result);
+      if (digestKey != null) localTier.put(digestKey, result);
+    }
+    if (sharedTier != null) {
+      String entry = (System.currentTimeMillis() + ttlMillis) + "\n" + result;
+      try {
+        sharedTier.uploadString(CACHE_BUCKET, urlKey, entry);
+        if (digestKey != null) sharedTier.uploadString(CACHE_BUCKET, digestKey, entry);
+      } catch (RuntimeException e) { // Other workers only miss the entry
+        System.err.println("Failed sharing cached result: " + e.getMessage());
+      }
+    }
+  }
+
+  private String get(String key) {
+    String result;
+    synchronized (localTier) {
+      result = localTier.get(key);
+    }
+    if (result != null) {
+      localHits.increment();
+      return result;
+    }
+    result = getShared(key);
+    if (result != null) {
+      sharedHits.increment();
+      synchronized (localTier) {
+        localTier.put(key, result);
+      }
+      return result;
+    }
+    misses.increment();
+    return null;
+  }
+
+  private String getShared(String key) {
+    if (sharedTier == null) return null;
+    try (InputStream stream = sharedTier.getFileStream(CACHE_BUCKET, key)) {
+      if (stream == null) return null;
+      String entry = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+      int separator = entry.indexOf('\n');
+      long expiresAt = Long.parseLong(entry.substring(0, separator));
+      if (expiresAt < System.currentTimeMillis()) {
+        expired.increment();
+        sharedTier.deleteObject(CACHE_BUCKET, key);
+        return null;
+      }
+      return entry.substring(separator + 1);
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  public static String digest(byte[] content) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+      char[] hex = new char[hash.length * 2];
+      for (int i = 0; i < hash.length; i++) {
+        hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+        hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public String getStats() {
+    long local = localHits.sum();
+    long shared = sharedHits.sum();
+    long miss = misses.sum();
+    long lookups = local + shared + miss;
+    return String.format(
+        "cache   lookups %d, local hits %d, shared hits %d, misses %d, expired %d, "
+            + "hit rate %.1f%%",
+        lookups,
+        local,
+        shared,
+        miss,
+        expired.sum(),
+        lookups == 0 ? 0 : 100.0 * (local + shared) / lookups);
+  }
+}
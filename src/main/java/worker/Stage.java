@@ -0,0 +1,151 @@
+package worker;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+public class Stage<T> {
+
+  public interface Handler<T> {
+    boolean handle(T item) throws Exception; // Returns false if the item should not move on
+  }
+
+  public interface FailureHandler<T> {
+    void onFailure(T item, Exception e) throws InterruptedException;
+  }
+
+  private static class Entry<T> {
+    private final T item;
+    private final long enqueuedNanos;
+
+    private Entry(T item) {
+      this.item = item;
+      this.enqueuedNanos = System.nanoTime();
+    }
+  }
+
+  private final String name;
+  private final int threads;
+  private final int capacity;
+  private final BlockingQueue<Entry<T>> queue;
+  private final Handler<T> handler;
+  private final ExecutorService executor;
+
+  private Stage<T> next;
+  private FailureHandler<T> failureHandler;
+
+  private final AtomicInteger busyThreads = new AtomicInteger();
+  private final LongAdder processed = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder processingNanos = new LongAdder();
+  private final LongAdder waitingNanos = new LongAdder();
+
+  public Stage(String name, int threads, int capacity, Handler<T> handler) {
+    this.name = name;
+    this.threads = threads;
+    this.capacity = capacity;
+    this.handler = handler;
+    queue = new ArrayBlockingQueue<>(capacity);
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  public Stage<T> then(Stage<T> next) {
+    this.next = next;
+    return next;
+  }
+
+  public void onFailure(FailureHandler<T> failureHandler) {
+    this.failureHandler = failureHandler;
+  }
+
+  public void start() {
+    IntStream.range(0, threads).forEach(i -> executor.execute(this::run));
+  }
+
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  public void submit(T item) throws InterruptedException {
+    queue.put(new Entry<>(item)); // Blocks while the stage is full to apply backpressure upstream
+  }
+
+  private void run() {
+    while (!Thread.currentThread().isInterrupted()) {
+      Entry<T> entry;
+      try {
+        entry = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      long start = System.nanoTime();
+      waitingNanos.add(start - entry.enqueuedNanos);
+      busyThreads.incrementAndGet();
+      try {
+        boolean forward = handler.handle(entry.item);
+        processingNanos.add(System.nanoTime() - start);
+        processed.increment();
+        if (forward && next != null) next.submit(entry.item);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        failed.increment();
+        try {
+          if (failureHandler != null) failureHandler.onFailure(entry.item, e);
+        } catch (InterruptedException interruptedException) {
+          return;
+        }
+      } finally {
+        busyThreads.decrementAndGet();
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getQueued() {
+    return queue.size();
+  }
+
+  public int getBusyThreads() {
+    return busyThreads.get();
+  }
+
+  public long getProcessed() {
+    return processed.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public double getAverageProcessingMillis() {
+    long count = processed.sum();
+    return count == 0 ? 0 : processingNanos.sum() / 1e6 / count;
+  }
+
+  public double getAverageWaitingMillis() {
+    long count = processed.sum() + failed.sum();
+    return count == 0 ? 0 : waitingNanos.sum() / 1e6 / count;
+  }
+
+  public String getStats() {
+    return String.format(
+        "%-7s queue %d/%d, busy %d/%d, done %d, failed %d, wait %.1f ms, process %.1f ms",
+        name,
+        getQueued(),
+        capacity,
+        getBusyThreads(),
+        threads,
+        getProcessed(),
+        getFailed(),
+        getAverageWaitingMillis(),
+        getAverageProcessingMillis());
+  }
+}
@@ -0,0 +1,66 @@
+package worker;
+
+import protocol.ImageResult;
+import protocol.MessageProtocol;
+import protocol.PayloadStore;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TaskBatch {
+
+  private final Message message;
+  private final UUID appId;
+  private final long taskId;
+  private final List<ImageTask> tasks;
+  private final AtomicInteger remaining;
+  private final AtomicBoolean settled = new AtomicBoolean(false);
+
+  public TaskBatch(Message message, UUID appId, long taskId, List<String> imageURLs) {
+    this.message = message;
+    this.appId = appId;
+    this.taskId = taskId;
+    tasks = new ArrayList<>(imageURLs.size());
+    for (String imageURL : imageURLs) {
+      tasks.add(new ImageTask(this, imageURL));
+    }
+    remaining = new AtomicInteger(tasks.size());
+  }
+
+  public Message getMessage() {
+    return message;
+  }
+
+  public UUID getAppId() {
+    return appId;
+  }
+
+  public List<ImageTask> getTasks() {
+    return tasks;
+  }
+
+  // Returns true once every image of the batch has a result, unless the batch was abandoned
+  public boolean complete() {
+    return remaining.decrementAndGet() == 0 && settled.compareAndSet(false, true);
+  }
+
+  // Returns true if the batch was neither completed nor abandoned before
+  public boolean abandon() {
+    return settled.compareAndSet(false, true);
+  }
+
+  // Results over the payload threshold travel through the blob store when payloads is set
+  public String createResponse(PayloadStore payloads) {
+    List<ImageResult> results = new ArrayList<>(tasks.size());
+    for (ImageTask task : tasks) {
+      ImageResult result =
+          new ImageResult(task.getImageURL(), task.getResult(), task.getElapsedMillis());
+      results.add(payloads == null ? result : payloads.offloadIfLarge(result));
+    }
+    return MessageProtocol.createWorkerResponse(appId, taskId, results);
+  }
+}
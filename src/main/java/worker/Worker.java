@@ -1,76 +1,70 @@
 package worker;
 
-import adapters.SQSAdapter;
-import net.sourceforge.tess4j.ITesseract;
-import net.sourceforge.tess4j.Tesseract;
-import net.sourceforge.tess4j.TesseractException;
-import protocol.MessageProtocol;
+import adapters.AwsClients;
+import adapters.MessageQueue;
+import adapters.QueueProvider;
+import adapters.S3Adapter;
+import adapters.SQSQueueProvider;
+import protocol.PayloadStore;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sqs.SqsClient;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.net.URL;
-import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public class Worker {
 
-  private static final ITesseract tesseract = new Tesseract();
-
   private static final Region REGION = Region.US_EAST_1;
   private static final String TESSERACT_PATH = "/usr/share/tesseract-ocr/4.00/tessdata";
+  private static final String TESSERACT_LANGUAGE = "eng";
+  private static final int CACHE_LOCAL_ENTRIES = 10000;
+  private static final int CACHE_TTL_HOURS = 24;
 
-  private static SqsClient sqs;
+  private static QueueProvider queues;
+  private static OCREnginePool ocrPool;
+  private static ResultCache cache;
+  private static PayloadStore payloads;
 
-  private static SQSAdapter taskQueue;
-  private static SQSAdapter responseQueue;
+  private static MessageQueue taskQueue;
+  private static MessageQueue responseQueue;
+  private static WorkerPipeline pipeline;
 
   public static void main(String[] args) {
-    sqs = SqsClient.builder().region(REGION).build();
-    tesseract.setDatapath(TESSERACT_PATH);
-    tesseract.setLanguage("eng");
+    queues = new SQSQueueProvider(AwsClients.sqs(REGION));
 
     String managerTaskQueueName = args[0];
     String workerResponseQueueName = args[1];
+    int workerThreads =
+        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
 
-    taskQueue = new SQSAdapter(sqs, managerTaskQueueName, false);
-    responseQueue = new SQSAdapter(sqs, workerResponseQueueName, false);
+    ocrPool = new OCREnginePool(workerThreads, TESSERACT_PATH, TESSERACT_LANGUAGE);
+    S3Adapter storage = new S3Adapter(REGION);
+    cache = new ResultCache(CACHE_LOCAL_ENTRIES, storage, CACHE_TTL_HOURS, TimeUnit.HOURS);
+    payloads = new PayloadStore(storage);
+    taskQueue = queues.getQueue(managerTaskQueueName, false);
+    responseQueue = queues.getQueue(workerResponseQueueName, false);
     start();
   }
 
   public static void start() {
-    for (; ; ) {
-      try {
-        taskQueue.receiveMessage(
-            message -> {
-              String[] messageSplits = MessageProtocol.split(message.body());
-              UUID appId = UUID.fromString(messageSplits[1]);
-              String imageURL = messageSplits[2];
-              handleWorkerMessage(appId, imageURL);
-              taskQueue.deleteMessage(message);
-            });
-      } catch (Exception e) {
-        responseQueue.sendMessage(MessageProtocol.createWorkerFailMessage(e.getMessage()));
-      }
-    }
+    pipeline =
+        new WorkerPipeline(
+            taskQueue,
+            responseQueue,
+            ocrPool,
+            cache,
+            payloads,
+            new PipelineConfig(ocrPool.size()));
+    pipeline.setStopListener(Worker::shutdownInstance);
+    pipeline.start();
   }
 
-  private static void handleWorkerMessage(UUID appId, String imageURL) {
+  private static void shutdownInstance() {
+    Runtime r = Runtime.getRuntime();
     try {
-      String OCRResult = getOCRFromImageURL(imageURL);
-      String response = MessageProtocol.createWorkerResponse(appId, imageURL, OCRResult);
-      responseQueue.sendMessage(response);
-    } catch (TesseractException | IOException e) {
-      String response =
-          MessageProtocol.createWorkerResponse(
-              appId, imageURL, MessageProtocol.ERROR_PREFIX + e.getMessage());
-      responseQueue.sendMessage(response);
+      r.exec("sudo shutdown -h now").waitFor();
+    } catch (InterruptedException | IOException e) {
+      System.exit(1);
     }
-  }
-
-  private static String getOCRFromImageURL(String imageURL) throws IOException, TesseractException {
-    BufferedImage imageBuffer = ImageIO.read(new URL(imageURL));
-    return tesseract.doOCR(imageBuffer);
+    System.exit(0);
   }
 }
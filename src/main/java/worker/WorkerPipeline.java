@@ -0,0 +1,295 @@
+package worker;
+
+import adapters.MessageQueue;
+import adapters.SQSAdapter;
+import protocol.MessageProtocol;
+import protocol.PayloadStore;
+import protocol.ProtocolMessage;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+public class WorkerPipeline {
+
+  private static final int STATS_INTERVAL_SECONDS = 60;
+  private static final long DRAIN_POLL_MILLIS = 100;
+
+  private final MessageQueue taskQueue;
+  private final MessageQueue responseQueue;
+  private final OCREnginePool ocrPool;
+  private final ResultCache cache;
+  private final PayloadStore payloads;
+  private final ImageFetcher fetcher;
+  private final ImagePreprocessor preprocessor;
+  private final LeaseManager leases;
+  private final int receiverThreads;
+
+  private final Stage<ImageTask> fetchStage;
+  private final Stage<ImageTask> decodeStage;
+  private final Stage<ImageTask> ocrStage;
+  private final Stage<ImageTask> publishStage;
+  private final List<Stage<ImageTask>> stages;
+
+  private final ExecutorService receivers;
+  private final ScheduledExecutorService statsReporter =
+      Executors.newSingleThreadScheduledExecutor();
+
+  private final AtomicInteger inFlightBatches = new AtomicInteger();
+  private final AtomicBoolean stopping = new AtomicBoolean(false);
+  private volatile Runnable stopListener = () -> {};
+
+  public WorkerPipeline(
+      MessageQueue taskQueue,
+      MessageQueue responseQueue,
+      OCREnginePool ocrPool,
+      ResultCache cache,
+      PayloadStore payloads,
+      PipelineConfig config) {
+    this.taskQueue = taskQueue;
+    this.responseQueue = responseQueue;
+    this.ocrPool = ocrPool;
+    this.cache = cache;
+    this.payloads = payloads;
+    this.fetcher = config.createFetcher();
+    this.preprocessor = config.createPreprocessor();
+    this.leases =
+        new LeaseManager(taskQueue, LeaseManager.LEASE_SECONDS, config.getMaxLeaseSeconds());
+    this.receiverThreads = config.getReceiverThreads();
+
+    fetchStage =
+        new Stage<>("fetch", config.getFetchThreads(), config.getFetchCapacity(), this::fetch);
+    decodeStage =
+        new Stage<>("decode", config.getDecodeThreads(), config.getDecodeCapacity(), this::decode);
+    ocrStage = new Stage<>("ocr", ocrPool.size(), config.getOcrCapacity(), this::ocr);
+    publishStage =
+        new Stage<>(
+            "publish", config.getPublishThreads(), config.getPublishCapacity(), this::publish);
+    if (preprocessor != null) {
+      Stage<ImageTask> preprocessStage =
+          new Stage<>(
+              "prep",
+              config.getPreprocessThreads(),
+              config.getPreprocessCapacity(),
+              this::preprocess);
+      fetchStage.then(decodeStage).then(preprocessStage).then(ocrStage).then(publishStage);
+      stages = List.of(fetchStage, decodeStage, preprocessStage, ocrStage, publishStage);
+    } else {
+      fetchStage.then(decodeStage).then(ocrStage).then(publishStage);
+      stages = List.of(fetchStage, decodeStage, ocrStage, publishStage);
+    }
+    stages.forEach(stage -> stage.onFailure(this::onStageFailure));
+    publishStage.onFailure(this::onPublishFailure);
+
+    receivers = Executors.newFixedThreadPool(receiverThreads);
+  }
+
+  public void start() {
+    stages.forEach(Stage::start);
+    leases.start();
+    IntStream.range(0, receiverThreads).forEach(i -> receivers.execute(this::taskListener));
+    statsReporter.scheduleAtFixedRate(
+        () -> System.out.println(getStats()),
+        STATS_INTERVAL_SECONDS,
+        STATS_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  public void stop() {
+    receivers.shutdownNow();
+    statsReporter.shutdownNow();
+    stages.forEach(Stage::stop);
+    leases.stop();
+    leases.releaseAll(); // Unfinished tasks go straight back to the other workers
+    responseQueue.flush();
+    taskQueue.flush();
+  }
+
+  public void setStopListener(Runnable stopListener) {
+    this.stopListener = stopListener;
+  }
+
+  // Stops taking new tasks, finishes the ones already received and then stops the pipeline
+  public void drainAndStop() {
+    if (stopping.compareAndSet(false, true)) drain();
+  }
+
+  private void drain() {
+    try {
+      receivers.shutdown();
+      receivers.awaitTermination(1, TimeUnit.MINUTES);
+      long deadline =
+          System.nanoTime()
+              + TimeUnit.SECONDS.toNanos(SQSAdapter.BATCH_VISIBILITY_TIMEOUT_SECONDS);
+      while (inFlightBatches.get() > 0 && System.nanoTime() < deadline) {
+        Thread.sleep(DRAIN_POLL_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    stop();
+    stopListener.run();
+  }
+
+  public boolean isStopping() {
+    return stopping.get();
+  }
+
+  public List<Stage<ImageTask>> getStages() {
+    return stages;
+  }
+
+  public String getStats() {
+    StringBuilder stats = new StringBuilder("Worker pipeline stats:");
+    stages.forEach(stage -> stats.append("\n\t").append(stage.getStats()));
+    stats.append("\n\t").append(fetcher.getStats());
+    if (cache != null) stats.append("\n\t").append(cache.getStats());
+    if (payloads != null) stats.append("\n\t").append(payloads.getStats());
+    stats.append("\n\t").append(leases.getStats());
+    return stats.toString();
+  }
+
+  private void taskListener() {
+    while (!stopping.get() && !Thread.currentThread().isInterrupted()) {
+      try {
+        for (Message message : taskQueue.receiveMessages(SQSAdapter.MAX_BATCH_ENTRIES)) {
+          ProtocolMessage request = MessageProtocol.parse(message.body());
+          if (request.getType() == ProtocolMessage.Type.WORKER_STOP) {
+            if (stopping.compareAndSet(false, true)) {
+              new Thread(this::drain, "worker-drain").start();
+            } else {
+              // Already draining, hand the stop request over to another worker
+              taskQueue.sendMessage(MessageProtocol.createWorkerStopMessage());
+            }
+            taskQueue.deleteMessage(message);
+            continue;
+          }
+          if (request.getType() != ProtocolMessage.Type.WORKER_TASK) {
+            throw new IllegalArgumentException("Unexpected worker message " + request.getType());
+          }
+          if (!leases.acquire(message)) continue; // Already working on this task
+          ProtocolMessage.WorkerTask workerTask = (ProtocolMessage.WorkerTask) request;
+          TaskBatch batch =
+              new TaskBatch(
+                  message,
+                  workerTask.getAppId(),
+                  workerTask.getTaskId(),
+                  workerTask.getImageURLs());
+          inFlightBatches.incrementAndGet();
+          try {
+            for (ImageTask task : batch.getTasks()) {
+              fetchStage.submit(task);
+            }
+          } catch (InterruptedException | RuntimeException e) {
+            abandon(batch);
+            throw e;
+          }
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        responseQueue.sendMessage(MessageProtocol.createWorkerFailMessage(e.getMessage()));
+      }
+    }
+  }
+
+  private boolean fetch(ImageTask task) throws IOException, InterruptedException {
+    task.markStarted();
+    if (cache != null && completeFromCache(task, cache.getByURL(task.getImageURL()))) {
+      return false;
+    }
+    task.setImageBytes(fetcher.fetch(task.getImageURL()));
+    if (cache != null) {
+      task.setContentDigest(ResultCache.digest(task.getImageBytes()));
+      return !completeFromCache(task, cache.getByDigest(task.getContentDigest()));
+    }
+    return true;
+  }
+
+  private boolean completeFromCache(ImageTask task, String cachedResult)
+      throws InterruptedException {
+    if (cachedResult == null) return false;
+    task.setResult(cachedResult);
+    task.setCached(true);
+    publishStage.submit(task); // Cache hits skip decoding and OCR
+    return true;
+  }
+
+  private boolean decode(ImageTask task) throws IOException {
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(task.getImageBytes()));
+    if (image == null) throw new IOException("Unsupported image format");
+    task.setImage(image);
+    return true;
+  }
+
+  private boolean preprocess(ImageTask task) {
+    task.setImage(preprocessor.process(task.getImage()));
+    return true;
+  }
+
+  private boolean ocr(ImageTask task) throws Exception {
+    task.setResult(ocrPool.doOCR(task.getImage()));
+    return true;
+  }
+
+  private boolean publish(ImageTask task) throws Exception {
+    if (cache != null && !task.isCached() && !task.isFailed()) {
+      cache.put(task.getImageURL(), task.getContentDigest(), task.getResult());
+    }
+    TaskBatch batch = task.getBatch();
+    if (batch.complete()) {
+      CompletableFuture<Void> sent;
+      try {
+        sent = responseQueue.sendMessageBuffered(batch.createResponse(payloads));
+      } catch (Exception e) {
+        inFlightBatches.decrementAndGet();
+        throw e;
+      }
+      sent.whenComplete((done, error) -> responseSent(batch, error));
+    }
+    return true;
+  }
+
+  // The task is only deleted once its response is on the queue, otherwise its lease is released
+  // so that another worker answers it
+  private void responseSent(TaskBatch batch, Throwable error) {
+    try {
+      if (error == null) {
+        taskQueue.deleteMessageBuffered(leases.complete(batch.getMessage()));
+      } else {
+        System.err.println("Failed sending task response: " + error.getMessage());
+        leases.release(batch.getMessage());
+      }
+    } finally {
+      inFlightBatches.decrementAndGet();
+    }
+  }
+
+  // The batch can no longer be answered, another worker retries it
+  private void onPublishFailure(ImageTask task, Exception e) {
+    abandon(task.getBatch());
+    responseQueue.sendMessage(MessageProtocol.createWorkerFailMessage(e.getMessage()));
+  }
+
+  private void abandon(TaskBatch batch) {
+    if (batch.abandon()) inFlightBatches.decrementAndGet();
+    leases.release(batch.getMessage());
+  }
+
+  private void onStageFailure(ImageTask task, Exception e) throws InterruptedException {
+    task.setResult(MessageProtocol.ERROR_PREFIX + e.getMessage());
+    task.setFailed(true);
+    publishStage.submit(task);
+  }
+}
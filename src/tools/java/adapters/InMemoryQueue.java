@@ -0,0 +1,349 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiptHandleIsInvalidException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class InMemoryQueue implements MessageQueue {
+
+  private static class Entry {
+    private final String messageId = UUID.randomUUID().toString();
+    private final String body;
+    private int receiveCount = 0;
+    private long visibleAtNanos = 0;
+    private String receiptHandle;
+
+    private Entry(String body) {
+      this.body = body;
+    }
+  }
+
+  private static class Waiter {
+    private final int maxMessages;
+    private final CompletableFuture<List<Message>> messages = new CompletableFuture<>();
+    private List<Message> received;
+
+    private Waiter(int maxMessages) {
+      this.maxMessages = maxMessages;
+    }
+  }
+
+  private static final ScheduledExecutorService longPollTimer =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "in-memory-long-poll");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final InMemoryQueueProvider provider;
+  private final String queueURL;
+  private final long waitMillis;
+  private final long visibilityTimeoutMillis;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final ArrayDeque<Entry> visible = new ArrayDeque<>();
+  private final PriorityQueue<Entry> inFlight =
+      new PriorityQueue<>((a, b) -> Long.compare(a.visibleAtNanos, b.visibleAtNanos));
+  private final Map<String, Entry> receipts = new HashMap<>();
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+
+  InMemoryQueue(
+      InMemoryQueueProvider provider,
+      String queueURL,
+      long waitMillis,
+      long visibilityTimeoutMillis) {
+    this.provider = provider;
+    this.queueURL = queueURL;
+    this.waitMillis = waitMillis;
+    this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+  }
+
+  @Override
+  public void sendMessage(String message) {
+    Waiter served;
+    lock.lock();
+    try {
+      visible.addLast(new Entry(message));
+      sent.incrementAndGet();
+      available.signal();
+      served = serveWaiter();
+    } finally {
+      lock.unlock();
+    }
+    if (served != null) served.messages.complete(served.received);
+  }
+
+  @Override
+  public CompletableFuture<Void> sendMessageBuffered(String message) {
+    sendMessage(message);
+    return CompletableFuture.completedFuture(null);
+  }
+
+  @Override
+  public boolean receiveMessage(MessageReceivedCallback callback) {
+    List<Message> messages = receive(1);
+    if (messages.isEmpty()) return false;
+    try {
+      callback.onReceive(messages.get(0));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  @Override
+  public void receiveMessageBatch(MessageReceivedCallback callback) {
+    try {
+      for (Message message : receive(SQSAdapter.MAX_BATCH_ENTRIES)) {
+        callback.onReceive(message);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public List<Message> receiveMessages(int maxMessages) {
+    return receive(Math.min(maxMessages, SQSAdapter.MAX_BATCH_ENTRIES));
+  }
+
+  // Parks the receive instead of a thread, a send completes it or the long poll timer does
+  @Override
+  public CompletableFuture<List<Message>> receiveMessagesAsync(int maxMessages) {
+    Waiter waiter = new Waiter(Math.min(maxMessages, SQSAdapter.MAX_BATCH_ENTRIES));
+    lock.lock();
+    try {
+      requeueExpired();
+      if (!visible.isEmpty()) return CompletableFuture.completedFuture(take(waiter.maxMessages));
+      waiters.addLast(waiter);
+    } finally {
+      lock.unlock();
+    }
+    longPollTimer.schedule(() -> expire(waiter), waitMillis, TimeUnit.MILLISECONDS);
+    return waiter.messages;
+  }
+
+  private void expire(Waiter waiter) {
+    List<Message> messages;
+    lock.lock();
+    try {
+      if (!waiters.remove(waiter)) return; // Already served
+      requeueExpired();
+      messages = take(waiter.maxMessages);
+    } finally {
+      lock.unlock();
+    }
+    waiter.messages.complete(messages);
+  }
+
+  // Hands visible messages to the oldest parked receive, completed by the caller after unlocking
+  private Waiter serveWaiter() {
+    if (waiters.isEmpty() || visible.isEmpty()) return null;
+    Waiter waiter = waiters.pollFirst();
+    waiter.received = take(waiter.maxMessages);
+    return waiter;
+  }
+
+  private List<Message> receive(int maxMessages) {
+    lock.lock();
+    try {
+      long remainingNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+      requeueExpired();
+      while (visible.isEmpty() && remainingNanos > 0) {
+        long waitNanos = remainingNanos;
+        Entry next = inFlight.peek();
+        if (next != null) {
+          waitNanos = Math.min(waitNanos, Math.max(0, next.visibleAtNanos - System.nanoTime()));
+        }
+        long start = System.nanoTime();
+        available.awaitNanos(waitNanos);
+        remainingNanos -= System.nanoTime() - start;
+        requeueExpired();
+      }
+      return take(maxMessages);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return List.of();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private List<Message> take(int maxMessages) {
+    List<Message> messages = new ArrayList<>(Math.min(maxMessages, visible.size()));
+    long visibleAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(visibilityTimeoutMillis);
+    while (messages.size() < maxMessages && !visible.isEmpty()) {
+      Entry entry = visible.pollFirst();
+      entry.receiveCount++;
+      entry.visibleAtNanos = visibleAt;
+      entry.receiptHandle = UUID.randomUUID().toString();
+      receipts.put(entry.receiptHandle, entry);
+      inFlight.add(entry);
+      messages.add(toMessage(entry));
+    }
+    received.addAndGet(messages.size());
+    return messages;
+  }
+
+  private void requeueExpired() {
+    long now = System.nanoTime();
+    while (!inFlight.isEmpty() && inFlight.peek().visibleAtNanos <= now) {
+      Entry entry = inFlight.poll();
+      receipts.remove(entry.receiptHandle);
+      entry.receiptHandle = null;
+      visible.addLast(entry);
+    }
+  }
+
+  private static Message toMessage(Entry entry) {
+    return Message.builder()
+        .messageId(entry.messageId)
+        .receiptHandle(entry.receiptHandle)
+        .body(entry.body)
+        .attributes(
+            Map.of(
+                MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT,
+                Integer.toString(entry.receiveCount)))
+        .build();
+  }
+
+  @Override
+  public void deleteMessage(Message message) {
+    lock.lock();
+    try {
+      Entry entry = receipts.remove(message.receiptHandle());
+      if (entry == null) {
+        throw ReceiptHandleIsInvalidException.builder()
+            .message("Receipt handle is no longer valid: " + message.receiptHandle())
+            .build();
+      }
+      inFlight.remove(entry);
+      deleted.incrementAndGet();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void changeMessageVisibility(Message message, int timeoutSeconds) {
+    Waiter served = null;
+    lock.lock();
+    try {
+      Entry entry = receipts.get(message.receiptHandle());
+      if (entry == null) {
+        throw ReceiptHandleIsInvalidException.builder()
+            .message("Receipt handle is no longer valid: " + message.receiptHandle())
+            .build();
+      }
+      inFlight.remove(entry);
+      entry.visibleAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+      inFlight.add(entry);
+      if (timeoutSeconds == 0) {
+        requeueExpired();
+        available.signalAll();
+        served = serveWaiter();
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (served != null) served.messages.complete(served.received);
+  }
+
+  @Override
+  public List<Message> changeMessageVisibilityBatch(List<Message> messages, int timeoutSeconds) {
+    List<Message> failed = new ArrayList<>();
+    for (Message message : messages) {
+      try {
+        changeMessageVisibility(message, timeoutSeconds);
+      } catch (ReceiptHandleIsInvalidException e) {
+        failed.add(message);
+      }
+    }
+    return failed;
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteMessageBuffered(Message message) {
+    try {
+      deleteMessage(message);
+      return CompletableFuture.completedFuture(null);
+    } catch (ReceiptHandleIsInvalidException e) {
+      System.err.printf("Failed deleting message from %s: %s%n", queueURL, e.getMessage());
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @Override
+  public void setBatchExecutor(Executor executor) {}
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void deleteQueue() {
+    provider.removeQueue(this);
+  }
+
+  @Override
+  public String getQueueURL() {
+    return queueURL;
+  }
+
+  @Override
+  public int getApproximateDepth() {
+    return getVisibleCount();
+  }
+
+  @Override
+  public int getApproximateInFlight() {
+    return getInFlightCount();
+  }
+
+  public int getVisibleCount() {
+    lock.lock();
+    try {
+      requeueExpired();
+      return visible.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlightCount() {
+    lock.lock();
+    try {
+      requeueExpired();
+      return inFlight.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public String getStats() {
+    return String.format(
+        "%s: sent %d, received %d, deleted %d, visible %d, in flight %d",
+        queueURL, sent.get(), received.get(), deleted.get(), getVisibleCount(), getInFlightCount());
+  }
+}
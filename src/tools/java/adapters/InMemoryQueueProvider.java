@@ -0,0 +1,48 @@
+package adapters;
+
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class InMemoryQueueProvider implements QueueProvider {
+
+  private static final String URL_PREFIX = "memory://";
+
+  private final ConcurrentHashMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+  private final long waitMillis;
+  private final long visibilityTimeoutMillis;
+
+  public InMemoryQueueProvider(long waitMillis, long visibilityTimeoutMillis) {
+    this.waitMillis = waitMillis;
+    this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+  }
+
+  @Override
+  public MessageQueue getQueue(String queueName, boolean create) {
+    String queueURL = URL_PREFIX + queueName;
+    if (create) {
+      return queues.computeIfAbsent(
+          queueURL,
+          url -> new InMemoryQueue(this, url, waitMillis, visibilityTimeoutMillis));
+    }
+    return getQueueByURL(queueURL);
+  }
+
+  @Override
+  public MessageQueue getQueueByURL(String queueURL) {
+    InMemoryQueue queue = queues.get(queueURL);
+    if (queue == null) {
+      throw QueueDoesNotExistException.builder().message("No such queue: " + queueURL).build();
+    }
+    return queue;
+  }
+
+  void removeQueue(InMemoryQueue queue) {
+    queues.remove(queue.getQueueURL(), queue);
+  }
+
+  public Collection<InMemoryQueue> getQueues() {
+    return queues.values();
+  }
+}
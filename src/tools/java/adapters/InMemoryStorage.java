@@ -0,0 +1,139 @@
+package adapters;
+
+import software.amazon.awssdk.services.s3.model.NoSuchBucketException;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class InMemoryStorage implements BlobStorage {
+
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+
+  private static class Blob {
+    private final byte[] content;
+    private final Instant lastModified = Instant.now();
+
+    private Blob(byte[] content) {
+      this.content = content;
+    }
+  }
+
+  private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Blob>> buckets =
+      new ConcurrentHashMap<>();
+  private final int pageSize;
+
+  public InMemoryStorage() {
+    this(DEFAULT_PAGE_SIZE);
+  }
+
+  public InMemoryStorage(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public InputStream getFileStream(String bucketName, String key) {
+    ConcurrentSkipListMap<String, Blob> bucket = buckets.get(bucketName);
+    Blob blob = bucket == null ? null : bucket.get(key);
+    return blob == null ? null : new ByteArrayInputStream(blob.content);
+  }
+
+  @Override
+  public InputStream getFileStream(String bucketName, String key, long offset)
+      throws FileNotFoundException {
+    ConcurrentSkipListMap<String, Blob> bucket = buckets.get(bucketName);
+    Blob blob = bucket == null ? null : bucket.get(key);
+    if (blob == null) throw new FileNotFoundException(bucketName + "/" + key + " not found");
+    if (offset > 0 && offset >= blob.content.length) return null; // Like S3 416
+    return new ByteArrayInputStream(blob.content, (int) offset, blob.content.length - (int) offset);
+  }
+
+  @Override
+  public void uploadString(String bucketName, String key, String content) {
+    putObject(bucketName, key, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public CompletableFuture<Void> uploadStringAsync(String bucketName, String key, String content) {
+    try {
+      uploadString(bucketName, key, content);
+      return CompletableFuture.completedFuture(null);
+    } catch (RuntimeException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @Override
+  public void createBucketAndUploadFile(String bucketName, String filePath) {
+    try {
+      createBucket(bucketName);
+      putObject(bucketName, filePath, Files.readAllBytes(Paths.get(filePath)));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public void createBucket(String bucketName) {
+    buckets.putIfAbsent(bucketName, new ConcurrentSkipListMap<>());
+  }
+
+  public void putObject(String bucketName, String key, byte[] content) {
+    buckets
+        .computeIfAbsent(bucketName, name -> new ConcurrentSkipListMap<>())
+        .put(key, new Blob(content));
+  }
+
+  @Override
+  public void deleteObject(String bucketName, String key) {
+    ConcurrentSkipListMap<String, Blob> bucket = buckets.get(bucketName);
+    if (bucket != null) bucket.remove(key);
+  }
+
+  @Override
+  public void streamBucket(String bucketName, S3ObjectCallback callback) {
+    String startAfter = null;
+    List<S3Object> page;
+    do {
+      page = listPage(bucketName, startAfter);
+      page.forEach(callback::objectAction);
+      if (!page.isEmpty()) startAfter = page.get(page.size() - 1).key();
+    } while (page.size() == pageSize);
+  }
+
+  private List<S3Object> listPage(String bucketName, String startAfter) {
+    ConcurrentSkipListMap<String, Blob> bucket = buckets.get(bucketName);
+    if (bucket == null) {
+      throw NoSuchBucketException.builder().message("No such bucket: " + bucketName).build();
+    }
+    Map<String, Blob> remaining = startAfter == null ? bucket : bucket.tailMap(startAfter, false);
+    List<S3Object> page = new ArrayList<>(pageSize);
+    for (Map.Entry<String, Blob> entry : remaining.entrySet()) {
+      if (page.size() == pageSize) break;
+      page.add(
+          S3Object.builder()
+              .key(entry.getKey())
+              .size((long) entry.getValue().content.length)
+              .lastModified(entry.getValue().lastModified)
+              .build());
+    }
+    return page;
+  }
+
+  @Override
+  public void deleteBucket(String bucketName) {
+    buckets.remove(bucketName);
+  }
+}
@@ -0,0 +1,226 @@
+package local;
+
+import adapters.InMemoryQueue;
+import adapters.InMemoryQueueProvider;
+import adapters.InMemoryStorage;
+import adapters.MessageQueue;
+import manager.InProcessComputeBackend;
+import manager.Manager;
+import protocol.MessageProtocol;
+import protocol.PayloadStore;
+import protocol.ProtocolMessage;
+import worker.ImageServer;
+import worker.OCREnginePool;
+import worker.PipelineConfig;
+import worker.ResultCache;
+import worker.WorkerPipeline;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LoadTest {
+
+  private static final String APP_TASKS_QUEUE = "manager_tasks";
+  private static final String INPUT_KEY = "input.txt";
+  private static final int DISTINCT_IMAGES = 16;
+  private static final int REPORT_PREFETCH_PARALLELISM = 8;
+  private static final int CACHE_LOCAL_ENTRIES = 10000;
+  private static final long QUEUE_WAIT_MILLIS = 200;
+  private static final long VISIBILITY_TIMEOUT_MILLIS = 120 * 1000;
+
+  private static InMemoryQueueProvider queues;
+  private static InMemoryStorage storage;
+  private static final AtomicLong deferredApps = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    int urlsPerApp = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int apps = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    int workerThreads =
+        args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    long ocrMicros = args.length > 3 ? Long.parseLong(args[3]) : 0;
+    int linesPerWorker = args.length > 4 ? Integer.parseInt(args[4]) : urlsPerApp;
+    boolean useCache = args.length <= 5 || Boolean.parseBoolean(args[5]);
+    int resultChars = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+    long fetchLatencyMillis = args.length > 7 ? Long.parseLong(args[7]) : -1; // -1 reads files
+
+    queues = new InMemoryQueueProvider(QUEUE_WAIT_MILLIS, VISIBILITY_TIMEOUT_MILLIS);
+    storage = new InMemoryStorage();
+    queues.getQueue(APP_TASKS_QUEUE, true);
+    ImageServer imageServer =
+        fetchLatencyMillis < 0 ? null : new ImageServer(0, fetchLatencyMillis, 0);
+    List<String> imageURLs = createImages(imageServer);
+
+    OCREnginePool ocrPool =
+        new OCREnginePool(
+            workerThreads, () -> image -> simulateOCR(image, ocrMicros, resultChars));
+    ResultCache cache =
+        useCache ? new ResultCache(CACHE_LOCAL_ENTRIES, storage, 1, TimeUnit.HOURS) : null;
+    InProcessComputeBackend workers =
+        new InProcessComputeBackend(
+            () ->
+                new WorkerPipeline(
+                    queues.getQueue(Manager.workerTasksQueueName, false),
+                    queues.getQueue(Manager.workerResponseQueueName, false),
+                    ocrPool,
+                    cache,
+                    new PayloadStore(storage),
+                    new PipelineConfig(workerThreads)),
+            1);
+    Thread manager =
+        new Thread(() -> Manager.run(queues, storage, workers, APP_TASKS_QUEUE), "manager");
+    manager.start();
+
+    System.out.printf(
+        "Running %d app(s) x %d URLs, %d OCR threads, %d us simulated OCR%n",
+        apps, urlsPerApp, workerThreads, ocrMicros);
+    long start = System.nanoTime();
+    List<Thread> clients = new ArrayList<>();
+    AtomicLong results = new AtomicLong();
+    for (int i = 0; i < apps; i++) {
+      Thread client =
+          new Thread(
+              () -> results.addAndGet(runApp(imageURLs, urlsPerApp, linesPerWorker, false)));
+      client.start();
+      clients.add(client);
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "Completed %d results in %.2f sec (%.1f images/sec), %d app(s) deferred%n",
+        results.get(), seconds, results.get() / seconds, deferredApps.get());
+    System.out.println(Manager.getStats());
+    workers.getWorkers().forEach(worker -> System.out.println(worker.getStats()));
+    queues.getQueues().stream().map(InMemoryQueue::getStats).forEach(System.out::println);
+
+    runApp(imageURLs, 1, 1, true);
+    manager.join();
+    if (imageServer != null) imageServer.stop();
+  }
+
+  private static long runApp(
+      List<String> imageURLs, int urlCount, int linesPerWorker, boolean terminate) {
+    UUID appId = UUID.randomUUID();
+    String bucketName = appId.toString();
+    MessageQueue responseQueue = queues.getQueue(bucketName, true);
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < urlCount; i++) {
+      input.append(imageURLs.get(i % imageURLs.size())).append('#').append(i).append('\n');
+    }
+    storage.createBucket(bucketName);
+    storage.putObject(bucketName, INPUT_KEY, input.toString().getBytes(StandardCharsets.UTF_8));
+
+    long start = System.nanoTime();
+    queues
+        .getQueue(APP_TASKS_QUEUE, false)
+        .sendMessage(
+            MessageProtocol.createManagerTaskMessage(appId, INPUT_KEY, linesPerWorker, terminate));
+    boolean[] done = {false};
+    int[] segments = {ProtocolMessage.ManagerDone.UNKNOWN_SEGMENTS};
+    long jobNanos = 0;
+    long reportNanos = 0;
+    long tailNanos = 0;
+    int results = 0;
+    try (ReportWriter reportWriter =
+        new ReportWriter(storage, bucketName, Writer.nullWriter(), REPORT_PREFETCH_PARALLELISM)) {
+      while (!done[0]) {
+        long[] renderNanos = {0};
+        responseQueue.receiveMessage(
+            message -> {
+              ProtocolMessage response = MessageProtocol.parse(message.body());
+              if (response.getType() == ProtocolMessage.Type.MANAGER_DEFERRED) {
+                deferredApps.incrementAndGet();
+              } else if (response.getType() == ProtocolMessage.Type.MANAGER_PROGRESS) {
+                long renderStart = System.nanoTime();
+                reportWriter.appendSegments(
+                    ((ProtocolMessage.ManagerProgress) response).getSegments());
+                renderNanos[0] = System.nanoTime() - renderStart;
+              } else if (response.getType() == ProtocolMessage.Type.MANAGER_FAILED) {
+                System.err.printf(
+                    "App %s failed: %s%n",
+                    appId, ((ProtocolMessage.ManagerFailed) response).getReason());
+                done[0] = true;
+              } else {
+                if (response.getType() == ProtocolMessage.Type.MANAGER_DONE) {
+                  segments[0] = ((ProtocolMessage.ManagerDone) response).getSegments();
+                }
+                done[0] = true;
+              }
+              responseQueue.deleteMessage(message);
+            });
+        reportNanos += renderNanos[0];
+      }
+      jobNanos = System.nanoTime() - start;
+      long tailStart = System.nanoTime();
+      if (segments[0] == ProtocolMessage.ManagerDone.UNKNOWN_SEGMENTS) {
+        reportWriter.appendStoredSegments(true);
+      } else {
+        reportWriter.appendSegments(segments[0]);
+      }
+      tailNanos = System.nanoTime() - tailStart;
+      results = reportWriter.getRowCount();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    System.out.printf(
+        "App %s: %d results in %.2f sec, report in %.2f sec while running + %.2f sec after%n",
+        appId, results, jobNanos / 1e9, reportNanos / 1e9, tailNanos / 1e9);
+    storage.deleteBucket(bucketName);
+    responseQueue.deleteQueue();
+    return results;
+  }
+
+  private static String simulateOCR(BufferedImage image, long ocrMicros, int resultChars) {
+    long deadline = System.nanoTime() + ocrMicros * 1000;
+    long checksum = 0;
+    while (System.nanoTime() < deadline) {
+      checksum += image.getRGB((int) Math.floorMod(checksum, (long) image.getWidth()), 0);
+    }
+    StringBuilder text =
+        new StringBuilder(
+            String.format("image %dx%d (%d)", image.getWidth(), image.getHeight(), checksum));
+    while (text.length() < resultChars) {
+      text.append("\nrecognized text line ").append(text.length()); // Dense page of OCR output
+    }
+    return text.toString();
+  }
+
+  // Served over HTTP when a server is given, otherwise read from temporary files
+  private static List<String> createImages(ImageServer server) throws IOException {
+    Path directory = Files.createTempDirectory("ocr-load-test");
+    directory.toFile().deleteOnExit();
+    List<String> imageURLs = new ArrayList<>(DISTINCT_IMAGES);
+    for (int i = 0; i < DISTINCT_IMAGES; i++) {
+      BufferedImage image = new BufferedImage(200, 50, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = image.createGraphics();
+      graphics.setColor(Color.WHITE);
+      graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+      graphics.setColor(Color.BLACK);
+      graphics.drawString("Load test image " + i, 10, 30);
+      graphics.dispose();
+      File file = directory.resolve("image" + i + ".png").toFile();
+      file.deleteOnExit();
+      ImageIO.write(image, "png", file);
+      imageURLs.add(file.toURI().toURL().toString());
+    }
+    if (server == null) return imageURLs;
+    server.addDirectory(directory.toFile());
+    server.start();
+    imageURLs.replaceAll(url -> server.getBaseURL() + url.substring(url.lastIndexOf('/') + 1));
+    return imageURLs;
+  }
+}
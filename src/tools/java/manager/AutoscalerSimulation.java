@@ -0,0 +1,131 @@
+package manager;
+
+import adapters.InMemoryQueueProvider;
+import adapters.MessageQueue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Replays a load trace ("second,arrivals" per line) against the autoscaler in virtual time
+public class AutoscalerSimulation {
+
+  private static final long STEP_MILLIS = 1000;
+  private static final long TICK_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long BOOT_MILLIS = TimeUnit.SECONDS.toMillis(90);
+  private static final long SERVICE_MILLIS = TimeUnit.SECONDS.toMillis(4);
+  private static final long DRAIN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+  private static final int MAX_WORKERS = 20;
+
+  public static void main(String[] args) throws Exception {
+    int[] arrivals = args.length > 0 ? readTrace(args[0]) : createBurstTrace();
+    run("autoscaled", arrivals, true);
+    run("fixed", arrivals, false);
+  }
+
+  private static void run(String name, int[] arrivals, boolean autoscale)
+      throws ExecutionException, InterruptedException {
+    long[] now = {0};
+    MessageQueue taskQueue =
+        new InMemoryQueueProvider(0, TimeUnit.DAYS.toMillis(1)).getQueue(name, true);
+    List<Long> latencies = new ArrayList<>();
+    WorkerAutoscaler[] autoscaler = new WorkerAutoscaler[1];
+    SimulatedComputeBackend backend =
+        new SimulatedComputeBackend(
+            taskQueue,
+            MAX_WORKERS,
+            BOOT_MILLIS,
+            SERVICE_MILLIS,
+            latency -> {
+              latencies.add(latency);
+              if (autoscaler[0] != null) autoscaler[0].recordCompletedTasks(1);
+            });
+    if (autoscale) {
+      autoscaler[0] = new WorkerAutoscaler(backend, taskQueue, () -> 0, () -> now[0], 0);
+    } else {
+      backend.startWorkers(MAX_WORKERS);
+    }
+
+    System.out.printf("%n%s%n  minute  arrivals  backlog  workers  target%n", name);
+    long end = arrivals.length * STEP_MILLIS + DRAIN_MILLIS;
+    int maxBacklog = 0;
+    int minuteArrivals = 0;
+    for (now[0] = 0; now[0] < end; now[0] += STEP_MILLIS) {
+      int second = (int) (now[0] / STEP_MILLIS);
+      int count = second < arrivals.length ? arrivals[second] : 0;
+      for (int i = 0; i < count; i++) {
+        taskQueue.sendMessage(Long.toString(now[0]));
+      }
+      minuteArrivals += count;
+      if (autoscale && count > 0 && backend.getActiveWorkerCount() == 0) {
+        autoscaler[0].requestWorkers(1); // What the manager does when a job arrives
+      }
+      backend.step(now[0]);
+      if (autoscale && now[0] > 0 && now[0] % TICK_MILLIS == 0) autoscaler[0].tick();
+      int backlog = taskQueue.getApproximateDepth();
+      maxBacklog = Math.max(maxBacklog, backlog);
+      if (second % 60 == 59) {
+        System.out.printf(
+            "  %6d  %8d  %7d  %7d  %6s%n",
+            second / 60 + 1,
+            minuteArrivals,
+            backlog,
+            backend.getActiveWorkerCount(),
+            autoscale ? Integer.toString(autoscaler[0].getLastTarget()) : "-");
+        minuteArrivals = 0;
+      }
+    }
+
+    Collections.sort(latencies);
+    System.out.printf(
+        "%s: %d tasks, %.1f worker-minutes, max backlog %d, "
+            + "latency p50 %.1fs p95 %.1fs p99 %.1fs max %.1fs%n",
+        name,
+        latencies.size(),
+        backend.getWorkerMillis() / 60000.0,
+        maxBacklog,
+        percentile(latencies, 0.50),
+        percentile(latencies, 0.95),
+        percentile(latencies, 0.99),
+        percentile(latencies, 1.0));
+  }
+
+  private static double percentile(List<Long> sorted, double fraction) {
+    if (sorted.isEmpty()) return 0;
+    int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index)) / 1000.0;
+  }
+
+  private static int[] readTrace(String path) throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(path));
+    int length = 0;
+    List<int[]> points = new ArrayList<>();
+    for (String line : lines) {
+      if (line.isBlank() || !Character.isDigit(line.charAt(0))) continue; // Header or comment
+      String[] fields = line.split(",");
+      int[] point = {Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[1].trim())};
+      points.add(point);
+      length = Math.max(length, point[0] + 1);
+    }
+    int[] arrivals = new int[length];
+    points.forEach(point -> arrivals[point[0]] += point[1]);
+    return arrivals;
+  }
+
+  // Quiet background load with a few sharp bursts, the shape that exposed the static policy
+  private static int[] createBurstTrace() {
+    int[] arrivals = new int[(int) TimeUnit.HOURS.toSeconds(2)];
+    for (int second = 0; second < arrivals.length; second++) {
+      int minute = second / 60;
+      if (minute % 10 == 0) arrivals[second] = 1;
+      if (minute >= 20 && minute < 25) arrivals[second] = 4;
+      if (minute >= 70 && minute < 72) arrivals[second] = 8;
+    }
+    return arrivals;
+  }
+}
@@ -0,0 +1,54 @@
+package manager;
+
+import worker.WorkerPipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class InProcessComputeBackend implements ComputeBackend {
+
+  private final Supplier<WorkerPipeline> workerFactory;
+  private final int maxWorkers;
+  private final List<WorkerPipeline> workers = new ArrayList<>();
+
+  public InProcessComputeBackend(Supplier<WorkerPipeline> workerFactory, int maxWorkers) {
+    this.workerFactory = workerFactory;
+    this.maxWorkers = maxWorkers;
+  }
+
+  @Override
+  public synchronized int getActiveWorkerCount() {
+    return workers.size();
+  }
+
+  @Override
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  @Override
+  public synchronized void startWorkers(int workerCount) {
+    int targetCount = Math.min(workerCount, maxWorkers);
+    while (workers.size() < targetCount) {
+      WorkerPipeline worker = workerFactory.get();
+      worker.setStopListener(() -> removeWorker(worker));
+      worker.start();
+      workers.add(worker);
+    }
+  }
+
+  private synchronized void removeWorker(WorkerPipeline worker) {
+    workers.remove(worker);
+  }
+
+  @Override
+  public synchronized void terminateWorkers() {
+    workers.forEach(WorkerPipeline::stop);
+    workers.clear();
+  }
+
+  public synchronized List<WorkerPipeline> getWorkers() {
+    return new ArrayList<>(workers);
+  }
+}
@@ -0,0 +1,111 @@
+package manager;
+
+import adapters.InMemoryQueueProvider;
+import adapters.MessageQueue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Runs the autoscaler control loop, job submission and completions against the fair scheduler at
+// once, the way the manager wires them, and fails if their locks ever deadlock
+public class SchedulerAutoscalerCheck {
+
+  private static final long RUN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final long CHECK_MILLIS = 200;
+  private static final int MAX_WORKERS = 20;
+
+  public static void main(String[] args) throws Exception {
+    long runMillis = args.length > 0 ? Long.parseLong(args[0]) : RUN_MILLIS;
+    MessageQueue taskQueue =
+        new InMemoryQueueProvider(0, TimeUnit.DAYS.toMillis(1)).getQueue("check", true);
+    SimulatedComputeBackend backend =
+        new SimulatedComputeBackend(taskQueue, MAX_WORKERS, 0, 0, latency -> {});
+    FairScheduler scheduler = new FairScheduler();
+    WorkerAutoscaler autoscaler =
+        new WorkerAutoscaler(
+            backend, taskQueue, scheduler::getQueuedTasks, System::currentTimeMillis, 1);
+    scheduler.start(taskQueue, autoscaler::getLastActiveWorkers);
+
+    AtomicBoolean running = new AtomicBoolean(true);
+    LongAdder ticks = new LongAdder();
+    LongAdder submitted = new LongAdder();
+    Thread ticker =
+        start(
+            "tick",
+            () -> {
+              while (running.get()) {
+                autoscaler.tick();
+                ticks.increment();
+              }
+            });
+    Thread submitter =
+        start(
+            "submit",
+            () -> {
+              UUID appId = UUID.randomUUID();
+              for (long taskId = 1; running.get(); taskId++) {
+                scheduler.submit(appId, taskId, List.of("http://example.com/" + taskId));
+                submitted.increment();
+              }
+            });
+    Thread completer =
+        start(
+            "complete",
+            () -> {
+              while (running.get()) {
+                scheduler.taskCompleted();
+                Thread.yield();
+              }
+            });
+
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long deadline = System.currentTimeMillis() + runMillis;
+    long[] deadlocked = null;
+    while (deadlocked == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(CHECK_MILLIS);
+      deadlocked = threads.findDeadlockedThreads();
+    }
+    running.set(false);
+    if (deadlocked != null) {
+      for (ThreadInfo info : threads.getThreadInfo(deadlocked, true, true)) {
+        System.err.print(info);
+      }
+      System.out.printf("DEADLOCK after %d ticks, %d tasks%n", ticks.sum(), submitted.sum());
+      System.exit(1);
+    }
+    scheduler.stop();
+    submitter.interrupt();
+    for (Thread thread : new Thread[] {ticker, submitter, completer}) {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+    System.out.printf("ok: %d ticks, %d tasks without a deadlock%n", ticks.sum(), submitted.sum());
+  }
+
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  private static Thread start(String name, Body body) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                body.run();
+              } catch (InterruptedException e) {
+                // Stopped
+              } catch (Exception e) {
+                e.printStackTrace();
+              }
+            },
+            name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+}
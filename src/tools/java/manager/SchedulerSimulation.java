@@ -0,0 +1,191 @@
+package manager;
+
+import protocol.ProtocolMessage.Priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+// Replays one large job followed by a stream of small ones against a fixed fleet in virtual time,
+// comparing a single FIFO worker queue with the fair scheduler
+public class SchedulerSimulation {
+
+  private static final int WORKERS = 20;
+  private static final long MILLIS_PER_IMAGE = 1000;
+  private static final int IMAGES_PER_TASK = 10;
+  private static final int LARGE_JOB_IMAGES = 100000;
+  private static final int SMALL_JOBS = 200;
+  private static final int SMALL_JOB_IMAGES = 20;
+  private static final long SMALL_JOB_INTERVAL_MILLIS = 5000;
+  private static final int HIGH_PRIORITY_EVERY = 5;
+  private static final int MAX_QUEUED_TASKS_PER_JOB = 1000;
+
+  private static class Job {
+    private final UUID appId = UUID.randomUUID();
+    private final String tenantClass;
+    private final Priority priority;
+    private final long arrivalMillis;
+    private final int tasks;
+    private int submitted = 0;
+    private int queued = 0;
+    private int remaining;
+    private long latencyMillis = -1;
+
+    private Job(String tenantClass, Priority priority, long arrivalMillis, int images) {
+      this.tenantClass = tenantClass;
+      this.priority = priority;
+      this.arrivalMillis = arrivalMillis;
+      this.tasks = (images + IMAGES_PER_TASK - 1) / IMAGES_PER_TASK;
+      this.remaining = tasks;
+    }
+  }
+
+  private interface Policy {
+    void submit(Job job, List<String> urls) throws InterruptedException;
+
+    Job next();
+  }
+
+  public static void main(String[] args) throws Exception {
+    run("fifo", new FifoPolicy());
+    run("fair", new FairPolicy());
+  }
+
+  private static void run(String name, Policy policy) throws InterruptedException {
+    List<Job> jobs = createJobs();
+    ArrayDeque<Job> arrivals = new ArrayDeque<>(jobs);
+    List<Job> ingesting = new ArrayList<>();
+    PriorityQueue<long[]> busyUntil = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+    Map<Long, Job> running = new HashMap<>();
+    long nextTaskId = 0;
+    int idleWorkers = WORKERS;
+    long now = 0;
+
+    while (true) {
+      while (!arrivals.isEmpty() && arrivals.peek().arrivalMillis <= now) {
+        Job job = arrivals.poll();
+        if (policy instanceof FairPolicy) ((FairPolicy) policy).register(job);
+        ingesting.add(job);
+      }
+      // Ingestion is instant, the fair scheduler stops it at the per job limit by blocking submit
+      int maxQueued = policy instanceof FairPolicy ? MAX_QUEUED_TASKS_PER_JOB : Integer.MAX_VALUE;
+      for (Job job : ingesting) {
+        while (job.submitted < job.tasks && job.queued < maxQueued) {
+          policy.submit(job, createTask(job));
+          job.submitted++;
+          job.queued++;
+        }
+      }
+      ingesting.removeIf(job -> job.submitted == job.tasks);
+
+      while (idleWorkers > 0) {
+        Job job = policy.next();
+        if (job == null) break;
+        job.queued--;
+        idleWorkers--;
+        running.put(nextTaskId, job);
+        busyUntil.add(new long[] {now + MILLIS_PER_IMAGE * IMAGES_PER_TASK, nextTaskId++});
+      }
+
+      long next = Long.MAX_VALUE;
+      if (!busyUntil.isEmpty()) next = busyUntil.peek()[0];
+      if (!arrivals.isEmpty()) next = Math.min(next, arrivals.peek().arrivalMillis);
+      if (next == Long.MAX_VALUE) break;
+      now = next;
+      while (!busyUntil.isEmpty() && busyUntil.peek()[0] <= now) {
+        Job job = running.remove(busyUntil.poll()[1]);
+        idleWorkers++;
+        if (--job.remaining == 0) job.latencyMillis = now - job.arrivalMillis;
+      }
+    }
+    report(name, jobs);
+  }
+
+  private static List<Job> createJobs() {
+    List<Job> jobs = new ArrayList<>();
+    jobs.add(new Job("large", Priority.NORMAL, 0, LARGE_JOB_IMAGES));
+    for (int i = 0; i < SMALL_JOBS; i++) {
+      boolean high = i % HIGH_PRIORITY_EVERY == 0;
+      jobs.add(
+          new Job(
+              high ? "small-high" : "small",
+              high ? Priority.HIGH : Priority.NORMAL,
+              (i + 1) * SMALL_JOB_INTERVAL_MILLIS,
+              SMALL_JOB_IMAGES));
+    }
+    return jobs;
+  }
+
+  private static List<String> createTask(Job job) {
+    List<String> urls = new ArrayList<>(IMAGES_PER_TASK);
+    for (int i = 0; i < IMAGES_PER_TASK; i++) {
+      urls.add("http://images.example/" + job.appId + "/" + job.submitted + "/" + i);
+    }
+    return urls;
+  }
+
+  private static void report(String name, List<Job> jobs) {
+    System.out.printf("%s%n", name);
+    for (String tenantClass : new String[] {"large", "small", "small-high"}) {
+      List<Long> latencies = new ArrayList<>();
+      for (Job job : jobs) {
+        if (job.tenantClass.equals(tenantClass)) latencies.add(job.latencyMillis);
+      }
+      Collections.sort(latencies);
+      System.out.printf(
+          "  %-10s %4d jobs, latency p50 %7.1fs p95 %7.1fs p99 %7.1fs%n",
+          tenantClass,
+          latencies.size(),
+          percentile(latencies, 0.50),
+          percentile(latencies, 0.95),
+          percentile(latencies, 0.99));
+    }
+  }
+
+  private static double percentile(List<Long> sorted, double fraction) {
+    if (sorted.isEmpty()) return 0;
+    int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+    return sorted.get(Math.max(0, index)) / 1000.0;
+  }
+
+  private static class FifoPolicy implements Policy {
+    private final ArrayDeque<Job> queue = new ArrayDeque<>();
+
+    @Override
+    public void submit(Job job, List<String> urls) {
+      queue.add(job);
+    }
+
+    @Override
+    public Job next() {
+      return queue.poll();
+    }
+  }
+
+  private static class FairPolicy implements Policy {
+    private final FairScheduler scheduler = new FairScheduler();
+    private final Map<UUID, Job> jobs = new HashMap<>();
+
+    private void register(Job job) {
+      jobs.put(job.appId, job);
+      scheduler.register(job.appId, job.priority);
+    }
+
+    @Override
+    public void submit(Job job, List<String> urls) throws InterruptedException {
+      scheduler.submit(job.appId, job.submitted + 1, urls);
+      if (job.submitted + 1 == job.tasks) scheduler.finish(job.appId);
+    }
+
+    @Override
+    public Job next() {
+      FairScheduler.Task task = scheduler.next();
+      return task == null ? null : jobs.get(task.getAppId());
+    }
+  }
+}
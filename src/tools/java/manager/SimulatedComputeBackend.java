@@ -0,0 +1,100 @@
+package manager;
+
+import adapters.MessageQueue;
+import protocol.MessageProtocol;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongConsumer;
+
+// Virtual-time stand-in for the EC2 fleet, task bodies are the millisecond they were enqueued at
+public class SimulatedComputeBackend implements ComputeBackend {
+
+  private static class SimulatedWorker {
+    private final long readyAtMillis;
+    private Message current;
+    private long busyUntilMillis;
+
+    private SimulatedWorker(long readyAtMillis) {
+      this.readyAtMillis = readyAtMillis;
+    }
+  }
+
+  private final MessageQueue taskQueue;
+  private final int maxWorkers;
+  private final long bootMillis;
+  private final long serviceMillis;
+  private final LongConsumer latencyListener;
+  private final List<SimulatedWorker> workers = new ArrayList<>();
+  private long now = 0;
+  private long workerMillis = 0;
+
+  public SimulatedComputeBackend(
+      MessageQueue taskQueue,
+      int maxWorkers,
+      long bootMillis,
+      long serviceMillis,
+      LongConsumer latencyListener) {
+    this.taskQueue = taskQueue;
+    this.maxWorkers = maxWorkers;
+    this.bootMillis = bootMillis;
+    this.serviceMillis = serviceMillis;
+    this.latencyListener = latencyListener;
+  }
+
+  @Override
+  public int getActiveWorkerCount() {
+    return workers.size();
+  }
+
+  @Override
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  @Override
+  public void startWorkers(int workerCount) {
+    int targetCount = Math.min(workerCount, maxWorkers);
+    while (workers.size() < targetCount) {
+      workers.add(new SimulatedWorker(now + bootMillis));
+    }
+  }
+
+  @Override
+  public void terminateWorkers() {
+    workers.clear();
+  }
+
+  public void step(long nowMillis) throws ExecutionException, InterruptedException {
+    workerMillis += (nowMillis - now) * workers.size();
+    now = nowMillis;
+    Iterator<SimulatedWorker> iterator = workers.iterator();
+    while (iterator.hasNext()) {
+      SimulatedWorker worker = iterator.next();
+      if (worker.readyAtMillis > now) continue;
+      if (worker.current != null && worker.busyUntilMillis <= now) {
+        taskQueue.deleteMessage(worker.current);
+        latencyListener.accept(now - Long.parseLong(worker.current.body()));
+        worker.current = null;
+      }
+      if (worker.current != null) continue;
+      List<Message> messages = taskQueue.receiveMessages(1);
+      if (messages.isEmpty()) continue;
+      Message message = messages.get(0);
+      if (message.body().equals(MessageProtocol.createWorkerStopMessage())) {
+        taskQueue.deleteMessage(message);
+        iterator.remove();
+        continue;
+      }
+      worker.current = message;
+      worker.busyUntilMillis = now + serviceMillis;
+    }
+  }
+
+  public long getWorkerMillis() {
+    return workerMillis;
+  }
+}
@@ -0,0 +1,123 @@
+package protocol;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Compares the codec with the former "|||" delimited string format on OCR sized payloads
+public class ProtocolBenchmark {
+
+  private static final String LEGACY_DELIMITER_REGEX = "\\|\\|\\|";
+  private static final String LEGACY_TASK = "new_image_task";
+  private static final String LEGACY_FINISH = "done_ocr_task";
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int MEASURED_ROUNDS = 5;
+  private static final long ROUND_NANOS = 1_000_000_000L;
+
+  private static final String[] WORDS = {
+    "the", "invoice", "total", "amount", "due", "2019", "page", "of", "customer", "address",
+    "street", "number", "date", "signature", "OCR", "quality", "scan", "receipt", "\u20ac",
+    "na\u00efve"
+  };
+
+  private static volatile Object sink;
+
+  public static void main(String[] args) {
+    int resultChars = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+    Random random = new Random(42);
+    UUID appId = UUID.randomUUID();
+    List<ImageResult> results = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      results.add(
+          new ImageResult(
+              "https://images.example.com/scans/" + UUID.randomUUID() + ".png",
+              createOCRText(random, resultChars),
+              100 + random.nextInt(5000)));
+    }
+    ImageResult single = results.get(0);
+    List<String> urls = new ArrayList<>();
+    results.forEach(result -> urls.add(result.getURL()));
+
+    String legacyTask = legacyTask(appId, single.getURL());
+    String legacyResponse = legacyResponse(appId, single.getURL(), single.getResult());
+    String task = MessageProtocol.createWorkerTaskMessage(appId, List.of(single.getURL()));
+    String response = MessageProtocol.createWorkerResponse(appId, List.of(single));
+    String batchResponse = MessageProtocol.createWorkerResponse(appId, results);
+
+    System.out.printf(
+        "Payload sizes: task legacy %d / codec %d chars, response legacy %d / codec %d chars, "
+            + "10 image response codec %d chars%n",
+        legacyTask.length(),
+        task.length(),
+        legacyResponse.length(),
+        response.length(),
+        batchResponse.length());
+    System.out.printf("%-30s %12s %14s%n", "benchmark", "ns/op", "bytes/op");
+
+    run("legacy task encode", () -> legacyTask(appId, single.getURL()));
+    run(
+        "codec task encode",
+        () -> MessageProtocol.createWorkerTaskMessage(appId, List.of(single.getURL())));
+    run("legacy task decode", () -> legacyTask.split(LEGACY_DELIMITER_REGEX));
+    run("codec task decode", () -> MessageProtocol.parse(task));
+    run(
+        "legacy response encode",
+        () -> legacyResponse(appId, single.getURL(), single.getResult()));
+    run(
+        "codec response encode",
+        () -> MessageProtocol.createWorkerResponse(appId, List.of(single)));
+    run("legacy response decode", () -> legacyResponse.split(LEGACY_DELIMITER_REGEX, 4));
+    run("codec response decode", () -> MessageProtocol.parse(response));
+    run("codec 10 url task encode", () -> MessageProtocol.createWorkerTaskMessage(appId, urls));
+    run("codec 10 image encode", () -> MessageProtocol.createWorkerResponse(appId, results));
+    run("codec 10 image decode", () -> MessageProtocol.parse(batchResponse));
+  }
+
+  private static String legacyTask(UUID appId, String URL) {
+    return String.format("%s|||%s|||%s", LEGACY_TASK, appId, URL);
+  }
+
+  private static String legacyResponse(UUID appId, String URL, String result) {
+    return String.format("%s|||%s|||%s|||%s", LEGACY_FINISH, appId, URL, result);
+  }
+
+  private static String createOCRText(Random random, int chars) {
+    StringBuilder text = new StringBuilder(chars + 16);
+    while (text.length() < chars) {
+      text.append(WORDS[random.nextInt(WORDS.length)]);
+      int separator = random.nextInt(12);
+      text.append(separator == 0 ? '\n' : separator == 1 ? '|' : ' ');
+    }
+    return text.toString();
+  }
+
+  private static void run(String name, Supplier<Object> operation) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    double bestNanos = Double.MAX_VALUE;
+    double bytes = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+      long operations = 0;
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+        for (int i = 0; i < 1000; i++) {
+          sink = operation.get();
+        }
+        operations += 1000;
+        elapsed = System.nanoTime() - start;
+      } while (elapsed < ROUND_NANOS);
+      if (round >= WARMUP_ROUNDS) {
+        bestNanos = Math.min(bestNanos, (double) elapsed / operations);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        bytes = (double) allocated / operations;
+      }
+    }
+    System.out.printf("%-30s %12.1f %14.1f%n", name, bestNanos, bytes);
+  }
+}
@@ -0,0 +1,120 @@
+package worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Fetches images from a local ImageServer with the plain URL stream the worker used before and
+// with ImageFetcher, then checks how the fetcher handles stalled, oversized and failing hosts.
+public class FetchBenchmark {
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int READ_TIMEOUT_MILLIS = 2000;
+  private static final int MAX_BYTES = 8 * 1024 * 1024;
+
+  private interface Fetch {
+    byte[] fetch(String url) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+    int perHost = args.length > 3 ? Integer.parseInt(args[3]) : threads;
+
+    ImageServer server = new ImageServer(0, latencyMillis, 0);
+    int distinctImages = 20;
+    for (int i = 0; i < distinctImages; i++) {
+      server.addImage("image" + i + ".png", ImageServer.createImage(i, 2000));
+    }
+    server.addImage("huge.png", new byte[MAX_BYTES + 1]);
+    server.start();
+    ImageFetcher fetcher =
+        new ImageFetcher(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_BYTES, perHost, 2);
+    try {
+      List<String> urls = new ArrayList<>(requests);
+      for (int i = 0; i < requests; i++) {
+        urls.add(server.getBaseURL() + "image" + (i % distinctImages) + ".png#" + i);
+      }
+      System.out.printf(
+          "%d requests, %d threads, %d ms latency, %d per host%n",
+          requests, threads, latencyMillis, perHost);
+      System.out.printf(
+          "%-10s %-10s %-12s %-10s %-10s%n",
+          "Client", "Time (s)", "Images/sec", "p50 (ms)", "p99 (ms)");
+      run(urls, threads, FetchBenchmark::openStream); // Warm up both
+      run(urls, threads, fetcher::fetch);
+      report("url", run(urls, threads, FetchBenchmark::openStream));
+      report("fetcher", run(urls, threads, fetcher::fetch));
+
+      String base = server.getBaseURL() + "image0.png";
+      expectFailure(fetcher, base + "?stall=1");
+      expectFailure(fetcher, server.getBaseURL() + "huge.png");
+      expectFailure(fetcher, base + "?status=503");
+      expectFailure(fetcher, base + "?status=404");
+      System.out.println(fetcher.getStats());
+    } finally {
+      server.stop();
+    }
+  }
+
+  private static long[] run(List<String> urls, int threads, Fetch fetch) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<Long>> latencies = new ArrayList<>(urls.size());
+      for (String url : urls) {
+        latencies.add(
+            executor.submit(
+                () -> {
+                  long requestStart = System.nanoTime();
+                  fetch.fetch(url);
+                  return System.nanoTime() - requestStart;
+                }));
+      }
+      long[] result = new long[urls.size() + 1];
+      for (int i = 0; i < urls.size(); i++) result[i] = latencies.get(i).get();
+      result[urls.size()] = System.nanoTime() - start;
+      return result;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void report(String name, long[] result) {
+    int count = result.length - 1;
+    double seconds = result[count] / 1e9;
+    long[] latencies = Arrays.copyOf(result, count);
+    Arrays.sort(latencies);
+    System.out.printf(
+        "%-10s %-10.2f %-12.1f %-10.1f %-10.1f%n",
+        name,
+        seconds,
+        count / seconds,
+        latencies[count / 2] / 1e6,
+        latencies[(int) (count * 0.99)] / 1e6);
+  }
+
+  private static void expectFailure(ImageFetcher fetcher, String url) throws Exception {
+    long start = System.nanoTime();
+    try {
+      fetcher.fetch(url);
+      System.out.printf("%s: unexpectedly succeeded%n", url);
+    } catch (IOException e) {
+      System.out.printf(
+          "%s: %s after %.0f ms%n", url, e.getMessage(), (System.nanoTime() - start) / 1e6);
+    }
+  }
+
+  private static byte[] openStream(String url) throws IOException {
+    try (InputStream stream = new URL(url).openStream()) {
+      return stream.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+// Local stand-in for the image hosts in the input files, for fetch latency and throughput tests.
+// Serves images from memory at /<name> after a fixed latency and at a bounded rate. Query
+// parameters misbehave on request: delay=<ms> overrides the latency, status=<code> answers with
+// that status, stall=1 sends the headers and then never finishes the body.
+public class ImageServer {
+
+  private static final int CHUNK_BYTES = 16 * 1024;
+
+  static {
+    // Headers and body go out in separate writes, without this delayed ACKs add 40 ms to each
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, byte[]> images = new ConcurrentHashMap<>();
+  private final long latencyMillis;
+  private final long bytesPerSecond;
+  private final LongAdder served = new LongAdder();
+
+  // A bytesPerSecond of 0 sends at full speed
+  public ImageServer(int port, long latencyMillis, long bytesPerSecond) throws IOException {
+    this.latencyMillis = latencyMillis;
+    this.bytesPerSecond = bytesPerSecond;
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: ImageServer <port> [latency_ms] [bytes_per_second] [images_directory]");
+      return;
+    }
+    ImageServer server =
+        new ImageServer(
+            Integer.parseInt(args[0]),
+            args.length > 1 ? Long.parseLong(args[1]) : 0,
+            args.length > 2 ? Long.parseLong(args[2]) : 0);
+    if (args.length > 3) {
+      server.addDirectory(new File(args[3]));
+    } else {
+      for (int i = 0; i < 10; i++) server.addImage("image" + i + ".png", createImage(i, 1000));
+    }
+    server.start();
+    System.out.printf("Serving %d images at %s%n", server.images.size(), server.getBaseURL());
+  }
+
+  public void addImage(String name, byte[] image) {
+    images.put(name, image);
+  }
+
+  public void addDirectory(File directory) throws IOException {
+    File[] files = directory.listFiles(File::isFile);
+    if (files == null) return;
+    for (File file : files) addImage(file.getName(), Files.readAllBytes(file.toPath()));
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  public String getBaseURL() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  public long getServed() {
+    return served.sum();
+  }
+
+  // PNG of about width x width / 4 pixels with some text on it
+  public static byte[] createImage(int index, int width) throws IOException {
+    BufferedImage image = new BufferedImage(width, width / 4, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.WHITE);
+    graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+    graphics.setColor(Color.BLACK);
+    graphics.drawString("Image server test image " + index, 10, image.getHeight() / 2);
+    graphics.dispose();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", bytes);
+    return bytes.toByteArray();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      Thread.sleep(Long.parseLong(query.getOrDefault("delay", Long.toString(latencyMillis))));
+      if (query.containsKey("status")) {
+        exchange.sendResponseHeaders(Integer.parseInt(query.get("status")), -1);
+        return;
+      }
+      byte[] image = images.get(exchange.getRequestURI().getPath().substring(1));
+      if (image == null) {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "image/png");
+      exchange.sendResponseHeaders(200, image.length);
+      OutputStream body = exchange.getResponseBody();
+      if (query.containsKey("stall")) {
+        body.write(image, 0, image.length / 2);
+        body.flush();
+        Thread.sleep(Long.MAX_VALUE); // Until the server stops
+      }
+      for (int offset = 0; offset < image.length; offset += CHUNK_BYTES) {
+        int length = Math.min(CHUNK_BYTES, image.length - offset);
+        body.write(image, offset, length);
+        if (bytesPerSecond > 0) Thread.sleep(length * 1000L / bytesPerSecond);
+      }
+      served.increment();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query) {
+    Map<String, String> parameters = new HashMap<>();
+    if (query == null) return parameters;
+    for (String parameter : query.split("&")) {
+      int separator = parameter.indexOf('=');
+      if (separator < 0) {
+        parameters.put(parameter, "");
+      } else {
+        parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+      }
+    }
+    return parameters;
+  }
+}
@@ -0,0 +1,82 @@
+package worker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class OCRBenchmark {
+
+  private static final String DEFAULT_TESSERACT_PATH = "/usr/share/tesseract-ocr/4.00/tessdata";
+  private static final String TESSERACT_LANGUAGE = "eng";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: OCRBenchmark <images_directory> [tessdata_path] [rounds]");
+      return;
+    }
+    String dataPath = args.length > 1 ? args[1] : DEFAULT_TESSERACT_PATH;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    List<BufferedImage> images = loadImages(new File(args[0]));
+    if (images.isEmpty()) {
+      System.err.println("No readable images found in " + args[0]);
+      return;
+    }
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    TreeSet<Integer> threadCounts = new TreeSet<>(List.of(1, 2, 4, cores));
+
+    run(images.subList(0, Math.min(images.size(), cores)), cores, dataPath); // Warm up
+    System.out.printf("%d images, %d round(s), %d cores%n", images.size(), rounds, cores);
+    System.out.printf("%-8s %-12s %-12s %-8s%n", "Threads", "Time (sec)", "Images/sec", "Speedup");
+    double baseline = 0;
+    for (int threads : threadCounts) {
+      long totalNanos = 0;
+      for (int round = 0; round < rounds; round++) {
+        totalNanos += run(images, threads, dataPath);
+      }
+      double seconds = totalNanos / 1e9 / rounds;
+      double throughput = images.size() / seconds;
+      if (baseline == 0) baseline = throughput;
+      System.out.printf(
+          "%-8d %-12.2f %-12.2f %-8.2f%n", threads, seconds, throughput, throughput / baseline);
+    }
+  }
+
+  private static long run(List<BufferedImage> images, int threads, String dataPath)
+      throws InterruptedException, ExecutionException {
+    OCREnginePool pool = new OCREnginePool(threads, dataPath, TESSERACT_LANGUAGE);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<String>> results = new ArrayList<>(images.size());
+      for (BufferedImage image : images) {
+        results.add(executor.submit(() -> pool.doOCR(image)));
+      }
+      for (Future<String> result : results) {
+        result.get();
+      }
+      return System.nanoTime() - start;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<BufferedImage> loadImages(File directory) throws IOException {
+    List<BufferedImage> images = new ArrayList<>();
+    File[] files = directory.listFiles(File::isFile);
+    if (files == null) return images;
+    for (File file : files) {
+      BufferedImage image = ImageIO.read(file);
+      if (image != null) images.add(image);
+    }
+    return images;
+  }
+}
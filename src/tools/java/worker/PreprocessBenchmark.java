@@ -0,0 +1,145 @@
+package worker;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares preprocessing variants by the time spent preprocessing and in Tesseract, and by how
+// close the text comes to a reference. The reference is <image>.txt next to an image when it
+// exists, otherwise the text Tesseract reads from the unprocessed image.
+public class PreprocessBenchmark {
+
+  private static final String DEFAULT_TESSERACT_PATH = "/usr/share/tesseract-ocr/4.00/tessdata";
+  private static final String TESSERACT_LANGUAGE = "eng";
+  private static final String SKIP_OCR = "none";
+
+  private static class Sample {
+    private final BufferedImage image;
+    private String reference;
+
+    private Sample(BufferedImage image, String reference) {
+      this.image = image;
+      this.reference = reference;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: PreprocessBenchmark <images_directory|url_list_file> [tessdata_path|none]"
+              + " [rounds] [max_side]");
+      return;
+    }
+    String dataPath = args.length > 1 ? args[1] : DEFAULT_TESSERACT_PATH;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    int maxSide = args.length > 3 ? Integer.parseInt(args[3]) : 3500;
+    List<Sample> samples = loadSamples(new File(args[0]));
+    if (samples.isEmpty()) {
+      System.err.println("No readable images found in " + args[0]);
+      return;
+    }
+    OCREnginePool ocr =
+        SKIP_OCR.equals(dataPath) ? null : new OCREnginePool(1, dataPath, TESSERACT_LANGUAGE);
+
+    Map<String, ImagePreprocessor> variants = new LinkedHashMap<>();
+    variants.put("none", null);
+    variants.put("gray+scale", new ImagePreprocessor(maxSide, false, false));
+    variants.put("+binarize", new ImagePreprocessor(maxSide, true, false));
+    variants.put("+deskew", new ImagePreprocessor(maxSide, true, true));
+
+    long pixels = 0;
+    for (Sample sample : samples) {
+      pixels += (long) sample.image.getWidth() * sample.image.getHeight();
+    }
+    System.out.printf(
+        "%d images, %.1f megapixels, %d round(s), max side %d%n",
+        samples.size(), pixels / 1e6, rounds, maxSide);
+    System.out.printf(
+        "%-12s %-16s %-12s %-12s %-10s%n",
+        "Variant", "Preprocess (ms)", "OCR (ms)", "Total (ms)", "Accuracy");
+    for (Map.Entry<String, ImagePreprocessor> variant : variants.entrySet()) {
+      long preprocessNanos = 0;
+      long ocrNanos = 0;
+      double similarity = 0;
+      for (int round = 0; round < rounds; round++) {
+        for (Sample sample : samples) {
+          long start = System.nanoTime();
+          BufferedImage image =
+              variant.getValue() == null ? sample.image : variant.getValue().process(sample.image);
+          long preprocessed = System.nanoTime();
+          preprocessNanos += preprocessed - start;
+          if (ocr == null) continue;
+          String text = ocr.doOCR(image);
+          ocrNanos += System.nanoTime() - preprocessed;
+          if (sample.reference == null) sample.reference = text; // First variant is the baseline
+          similarity += similarity(sample.reference, text);
+        }
+      }
+      double runs = (double) rounds * samples.size();
+      System.out.printf(
+          "%-12s %-16.1f %-12s %-12s %-10s%n",
+          variant.getKey(),
+          preprocessNanos / 1e6 / runs,
+          ocr == null ? "-" : String.format("%.1f", ocrNanos / 1e6 / runs),
+          ocr == null ? "-" : String.format("%.1f", (preprocessNanos + ocrNanos) / 1e6 / runs),
+          ocr == null ? "-" : String.format("%.3f", similarity / runs));
+    }
+  }
+
+  private static List<Sample> loadSamples(File source) throws IOException {
+    List<Sample> samples = new ArrayList<>();
+    if (source.isDirectory()) {
+      File[] files = source.listFiles(File::isFile);
+      if (files == null) return samples;
+      for (File file : files) {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) continue;
+        File truth = new File(file.getPath().replaceFirst("\\.[^.]*$", "") + ".txt");
+        String reference = truth.isFile() ? Files.readString(truth.toPath()) : null;
+        samples.add(new Sample(image, reference));
+      }
+      return samples;
+    }
+    for (String line : Files.readAllLines(source.toPath(), StandardCharsets.UTF_8)) {
+      if (line.isBlank()) continue;
+      try (InputStream stream = new URL(line.trim()).openStream()) {
+        BufferedImage image = ImageIO.read(stream);
+        if (image != null) samples.add(new Sample(image, null));
+      } catch (IOException e) {
+        System.err.println("Skipping " + line.trim() + ": " + e.getMessage());
+      }
+    }
+    return samples;
+  }
+
+  // 1 - edit distance / longer length over whitespace normalized text
+  private static double similarity(String expected, String actual) {
+    String a = expected.trim().replaceAll("\\s+", " ");
+    String b = actual.trim().replaceAll("\\s+", " ");
+    int longer = Math.max(a.length(), b.length());
+    if (longer == 0) return 1;
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) previous[j] = j;
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+        current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return 1 - (double) previous[b.length()] / longer;
+  }
+}